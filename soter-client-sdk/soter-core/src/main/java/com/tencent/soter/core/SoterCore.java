@@ -10,15 +10,17 @@
 package com.tencent.soter.core;
 
 import android.content.Context;
-import android.util.Base64;
 
 import com.tencent.soter.core.biometric.BiometricManagerCompat;
 import com.tencent.soter.core.fingerprint.SoterAntiBruteForceStrategy;
 import com.tencent.soter.core.model.SLogger;
+import com.tencent.soter.core.model.SoterAuthKeyStatus;
 import com.tencent.soter.core.model.SoterCoreResult;
 import com.tencent.soter.core.model.SoterCoreUtil;
 import com.tencent.soter.core.model.SoterDelegate;
 import com.tencent.soter.core.model.SoterErrCode;
+import com.tencent.soter.core.model.SoterExportCodec;
+import com.tencent.soter.core.model.SoterKeyPreparationStatus;
 import com.tencent.soter.core.model.SoterPubKeyModel;
 import com.tencent.soter.core.model.SoterSignatureResult;
 import com.tencent.soter.core.fingerprint.FingerprintManagerCompat;
@@ -27,7 +29,10 @@ import com.tencent.soter.core.sotercore.CertSoterCore;
 import com.tencent.soter.core.sotercore.SoterCoreBase;
 import com.tencent.soter.core.sotercore.SoterCoreBeforeTreble;
 import com.tencent.soter.core.sotercore.SoterCoreTreble;
+import com.tencent.soter.core.sotercore.SoterCoreTrebleInitCallback;
 import com.tencent.soter.core.sotercore.SoterCoreTrebleServiceListener;
+import com.tencent.soter.core.sotercore.SoterProviderInfo;
+import com.tencent.soter.core.sotercore.SoterSignaturePool;
 import com.tencent.soter.soterserver.SoterSessionResult;
 
 import java.io.IOException;
@@ -35,11 +40,11 @@ import java.security.InvalidKeyException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.Provider;
-import java.security.Security;
 import java.security.Signature;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The SOTER Core APIs for developer to handle keys and other basic stuff. Do not change this file because there're many magic codes in it.
@@ -51,7 +56,13 @@ public class SoterCore implements ConstantsSoter, SoterErrCode {
     public static final int IS_TREBLE = 1;
 
     private static SoterCoreTrebleServiceListener serviceListener;
-    private static SoterCoreBase IMPL;
+    private static volatile SoterCoreBase IMPL;
+
+    // the async Treble initialization has its own lock, so the tasks checking it never wait for a blocking tryToInitSoterTreble
+    private static final Object sTrebleInitLock = new Object();
+    private static volatile SoterCoreTreble sInitializingTreble;
+    private static boolean sIsSyncTrebleInitializing = false;
+    private static final List<SoterCoreTrebleInitCallback> sTrebleInitCallbacks = new ArrayList<>();
 
     static {
         SLogger.i(TAG,"soter: SoterCore is call static block to init SoterCore IMPL");
@@ -70,17 +81,116 @@ public class SoterCore implements ConstantsSoter, SoterErrCode {
     public static synchronized void tryToInitSoterTreble(Context context) {
         if(IMPL == null ){
             SLogger.i(TAG,"soter: SoterCore IMPL is null then call tryToInitSoterTreble to init");
-            if (!SoterCoreTreble.isInitializing()) {
-                IMPL = new SoterCoreTreble();
-                IMPL.setTrebleServiceListener(serviceListener);
-                if(!IMPL.initSoter(context)){
-                    IMPL = null;
-                    SLogger.i(TAG,"soter: SoterCore IMPL is null after call tryToInitSoterTreble to init");
+            synchronized (sTrebleInitLock) {
+                if (SoterCoreTreble.isInitializing() || sInitializingTreble != null) {
+                    SLogger.i(TAG, "soter: treble is initializing");
+                    return;
+                }
+                sIsSyncTrebleInitializing = true;
+            }
+            IMPL = new SoterCoreTreble();
+            IMPL.setTrebleServiceListener(serviceListener);
+            if(!IMPL.initSoter(context)){
+                IMPL = null;
+                SLogger.i(TAG,"soter: SoterCore IMPL is null after call tryToInitSoterTreble to init");
+            }
+            List<SoterCoreTrebleInitCallback> callbacks;
+            synchronized (sTrebleInitLock) {
+                sIsSyncTrebleInitializing = false;
+                callbacks = new ArrayList<>(sTrebleInitCallbacks);
+                sTrebleInitCallbacks.clear();
+            }
+            // the callbacks of tryToInitSoterTrebleAsync called in the meantime
+            boolean hasImpl = IMPL != null;
+            for (SoterCoreTrebleInitCallback callback : callbacks) {
+                callback.onInitFinished(hasImpl);
+            }
+        }
+    }
+
+    /**
+     * Initialize the Treble core without blocking the caller. The core is used once the Soter Service is connected.
+     * Before that, {@link #isTrebleInitializing()} is true and you can queue your work by {@link #runAfterTrebleInit(SoterCoreTrebleInitCallback)}.
+     * @param context The context
+     * @param callback The callback when the initialization finishes, true if SOTER has an implementation then. Nullable
+     */
+    public static void tryToInitSoterTrebleAsync(Context context, SoterCoreTrebleInitCallback callback) {
+        final SoterCoreTreble treble;
+        synchronized (sTrebleInitLock) {
+            if (sIsSyncTrebleInitializing) {
+                // tryToInitSoterTreble is connecting, wait for it instead of connecting again
+                if (callback != null) {
+                    sTrebleInitCallbacks.add(callback);
                 }
+                return;
+            }
+            if (IMPL != null) {
+                treble = null;
             } else {
-                SLogger.i(TAG, "soter: treble is initializing");
+                if (callback != null) {
+                    sTrebleInitCallbacks.add(callback);
+                }
+                if (sInitializingTreble != null) {
+                    return;
+                }
+                SLogger.i(TAG,"soter: SoterCore IMPL is null then call tryToInitSoterTrebleAsync to init");
+                sInitializingTreble = new SoterCoreTreble();
+                sInitializingTreble.setTrebleServiceListener(serviceListener);
+                treble = sInitializingTreble;
             }
+        }
+        if (treble == null) {
+            if (callback != null) {
+                callback.onInitFinished(IMPL != null);
+            }
+            return;
+        }
+        final long currentTicks = SoterCoreUtil.getCurrentTicks();
+        treble.initSoterAsync(context, new SoterCoreTrebleInitCallback() {
+            @Override
+            public void onInitFinished(boolean isSuccess) {
+                List<SoterCoreTrebleInitCallback> callbacks;
+                boolean hasImpl;
+                synchronized (sTrebleInitLock) {
+                    if (isSuccess && IMPL == null) {
+                        IMPL = treble;
+                    }
+                    sInitializingTreble = null;
+                    hasImpl = IMPL != null;
+                    callbacks = new ArrayList<>(sTrebleInitCallbacks);
+                    sTrebleInitCallbacks.clear();
+                }
+                SLogger.i(TAG, "soter: tryToInitSoterTrebleAsync finish: %b, cost: %d ms, waiting: %d", isSuccess,
+                        SoterCoreUtil.ticksToNowInMs(currentTicks), callbacks.size());
+                for (SoterCoreTrebleInitCallback callback : callbacks) {
+                    callback.onInitFinished(hasImpl);
+                }
+            }
+        });
+    }
 
+    /**
+     * @return true if the Treble core is being initialized by {@link #tryToInitSoterTrebleAsync(Context, SoterCoreTrebleInitCallback)}
+     */
+    public static boolean isTrebleInitializing() {
+        return sInitializingTreble != null;
+    }
+
+    /**
+     * Queue the callback behind the Treble core initialization started by {@link #tryToInitSoterTrebleAsync(Context, SoterCoreTrebleInitCallback)}
+     * @param callback The callback when the initialization finishes
+     * @return true if the callback is queued, false if there's no initialization in progress and the callback is not called
+     */
+    public static boolean runAfterTrebleInit(SoterCoreTrebleInitCallback callback) {
+        if (sInitializingTreble == null) {
+            return false;
+        }
+        synchronized (sTrebleInitLock) {
+            if (sInitializingTreble == null) {
+                return false;
+            }
+            sTrebleInitCallbacks.add(callback);
+            return true;
         }
     }
 
@@ -114,20 +224,24 @@ public class SoterCore implements ConstantsSoter, SoterErrCode {
         if(SoterDelegate.isTriggeredOOM()) {
             return null;
         }
-        Provider[] providers = Security.getProviders();
-        if (providers == null) {
-            return null;
-        }
-        for (Provider provider : providers) {
-            String providerName = provider.getName();
-            if (providerName != null && providerName.startsWith(SoterCore.SOTER_PROVIDER_NAME)) {
-                if(providerName.split("\\.").length > 1){
-                    return new CertSoterCore(providerName);
-                }
-                return new SoterCoreBeforeTreble(providerName);
-            }
-        }
-        return null;
+        SoterProviderInfo providerInfo = SoterProviderInfo.get();
+        return providerInfo == null ? null : providerInfo.newSoterCore();
+    }
+
+    /**
+     * Get the SOTER provider of this device. The provider is discovered once and cached.
+     * @return The provider's name, whether it exports keys as certificate chains, and its {@link SoterCoreBase} implementation.
+     * Null if there's no SOTER provider.
+     */
+    public static SoterProviderInfo getSoterProviderInfo() {
+        return SoterProviderInfo.get();
+    }
+
+    /**
+     * Drop the cached SOTER provider. Call it if the security providers are changed outside SOTER.
+     */
+    public static void invalidateSoterProviderInfo() {
+        SoterProviderInfo.invalidate();
     }
 
     public static boolean isTrebleServiceConnected() {
@@ -156,6 +270,11 @@ public class SoterCore implements ConstantsSoter, SoterErrCode {
 
     public static void setTrebleServiceListener(SoterCoreTrebleServiceListener listener) {
         serviceListener = listener;
+        synchronized (sTrebleInitLock) {
+            if (sInitializingTreble != null) {
+                sInitializingTreble.setTrebleServiceListener(listener);
+            }
+        }
         if (IMPL == null) {
             SLogger.e(TAG, "soter: setTrebleServiceListener IMPL is null, not support soter");
             return;
@@ -282,6 +401,49 @@ public class SoterCore implements ConstantsSoter, SoterErrCode {
 
     }
 
+    /**
+     * Query if each of the Auth Keys exists and is valid, with one keystore load or the fewest service calls
+     * @param authKeyNames The key aliases to query
+     * @return The status of each key, in the same order as the names
+     */
+    public static List<SoterAuthKeyStatus> queryAuthKeys(String... authKeyNames) {
+        return queryAuthKeys(true, false, authKeyNames);
+    }
+
+    /**
+     * Query the status of several Auth Keys at once, with one keystore load or the fewest service calls
+     * @param checkValidity true to check whether each existing key is valid, see {@link #isAuthKeyValid(String, boolean)}
+     * @param withModel true to retrieve the public key model of each valid key as well, which implies checkValidity
+     * @param authKeyNames The key aliases to query
+     * @return The status of each key, in the same order as the names. Every key is reported as not existing if soter is not supported
+     */
+    public static List<SoterAuthKeyStatus> queryAuthKeys(boolean checkValidity, boolean withModel, String... authKeyNames) {
+        if (IMPL == null){
+            SLogger.e(TAG, "soter: queryAuthKeys IMPL is null, not support soter");
+            List<SoterAuthKeyStatus> result = new ArrayList<>(authKeyNames.length);
+            for (String authKeyName : authKeyNames) {
+                result.add(new SoterAuthKeyStatus(authKeyName, false, false, false, null));
+            }
+            return result;
+        }
+        return IMPL.queryAuthKeys(checkValidity, withModel, authKeyNames);
+    }
+
+    /**
+     * Query whether the App Secure Key is valid and the status of the Auth Key at once, with the fewest service calls.
+     * It's what's needed to decide whether the Auth Key should be prepared.
+     * @param authKeyName The key alias to query
+     * @param withModel true to retrieve the public key model of the Auth Key as well if it's valid
+     * @return The status of both keys. Both keys are reported as not existing if soter is not supported
+     */
+    public static SoterKeyPreparationStatus queryKeyPreparation(String authKeyName, boolean withModel) {
+        if (IMPL == null){
+            SLogger.e(TAG, "soter: queryKeyPreparation IMPL is null, not support soter");
+            return new SoterKeyPreparationStatus(false, new SoterAuthKeyStatus(authKeyName, false, false, false, null));
+        }
+        return IMPL.queryKeyPreparation(authKeyName, withModel);
+    }
+
     /**
      * Check if the Auth Key is valid or not. The check is necessary because from Android M, the Auth Key would be permanently invalid once
      * user enrolled a new fingerprint in the device.
@@ -331,6 +493,23 @@ public class SoterCore implements ConstantsSoter, SoterErrCode {
 
     }
 
+    /**
+     * Prepare the {@link Signature} of the Auth Key ahead of authentication, e.g. when the payment page is opened, so that the next
+     * {@link #getAuthInitAndSign(String)} of the key returns it immediately. The prepared signature is used only once, and it's
+     * dropped when it expires (see {@link SoterSignaturePool#setExpireMillis(long)}) or when the key is generated or deleted.
+     * Only the devices before Treble authenticate with a Signature object, so it does nothing on Treble devices.
+     * Remind not to call it in UI thread.
+     * @param useKeyAlias The Auth Key alias of which key you want to prepare
+     * @return true if the signature is prepared
+     */
+    public static boolean prepareAuthInitAndSign(String useKeyAlias) {
+        if (IMPL == null){
+            SLogger.e(TAG, "soter: prepareAuthInitAndSign IMPL is null, not support soter");
+            return false;
+        }
+        return IMPL.prepareAuthInitAndSign(useKeyAlias);
+    }
+
     private static Signature initAuthKeySignature(String useKeyAlias) throws InvalidKeyException, NoSuchProviderException,
             NoSuchAlgorithmException,
             KeyStoreException,
@@ -376,85 +555,22 @@ public class SoterCore implements ConstantsSoter, SoterErrCode {
             SLogger.e(TAG, "origin is null or nil. abort");
             return null;
         }
-        if (origin.length < RAW_LENGTH_PREFIX) {
-            SLogger.e(TAG, "soter: length not correct 1");
+        SoterExportCodec codec = SoterExportCodec.decode(origin);
+        if (codec == null) {
             return null;
         }
-        byte[] lengthBytes = new byte[4];
-        System.arraycopy(origin, 0, lengthBytes, 0, 4);
-        int rawLength = toInt(lengthBytes);
-        SLogger.d("Soter", "parsed raw length: " + rawLength);
-        if(rawLength > 1024 * 1024) {
-            SLogger.e(TAG, "soter: too large signature result!");
-            return null;
-        }
-
-        byte[] rawJsonBytes = new byte[rawLength];
-        if (origin.length <= RAW_LENGTH_PREFIX + rawLength) {
+        if (!codec.hasSignature()) {
             SLogger.e(TAG, "soter: length not correct 2");
             return null;
         }
-        System.arraycopy(origin, RAW_LENGTH_PREFIX, rawJsonBytes, 0, rawLength);
-        SoterSignatureResult result = SoterSignatureResult.convertFromJson(new String(rawJsonBytes));
-        int signatureLength = origin.length - (RAW_LENGTH_PREFIX + rawLength);
-        SLogger.d(TAG, "soter: signature length: " + signatureLength);
-        byte[] signature = new byte[signatureLength];
-        System.arraycopy(origin, rawLength + RAW_LENGTH_PREFIX, signature, 0, signatureLength);
+        SoterSignatureResult result = SoterSignatureResult.convertFromJson(codec.getJson());
+        SLogger.d(TAG, "soter: signature length: " + codec.getSignatureLength());
         if (result != null) {
-            result.setSignature(Base64.encodeToString(signature, Base64.NO_WRAP));
+            result.setSignature(codec.getSignatureBase64());
         }
         return result;
     }
 
-    private static final int RAW_LENGTH_PREFIX = 4;
-
-    private static int toInt(byte[] bRefArr) {
-        int iOutcome = 0;
-        byte bLoop;
-
-        for (int i = 0; i < bRefArr.length; i++) {
-            bLoop = bRefArr[i];
-            iOutcome += (bLoop & 0xFF) << (8 * i);
-        }
-        return iOutcome;
-    }
-
-    // Magic warning. Do not modify anyway
-    private static SoterPubKeyModel retrieveJsonFromExportedData(byte[] origin) {
-        if (origin == null) {
-            SLogger.e(TAG, "soter: raw data is null");
-            return null;
-        }
-        if (origin.length < RAW_LENGTH_PREFIX) {
-            SLogger.e(TAG, "soter: raw data length smaller than RAW_LENGTH_PREFIX");
-        }
-        byte[] lengthBytes = new byte[4];
-        System.arraycopy(origin, 0, lengthBytes, 0, 4);
-        int rawLength = toInt(lengthBytes);
-        SLogger.d(TAG, "soter: parsed raw length: " + rawLength);
-        if(rawLength > 1024 * 1024) {
-            SLogger.e(TAG, "soter: too large json result!");
-            return null;
-        }
-        byte[] rawJsonBytes = new byte[rawLength];
-        if (origin.length <= RAW_LENGTH_PREFIX + rawLength) {
-            SLogger.e(TAG, "length not correct 2");
-            return null;
-        }
-        System.arraycopy(origin, RAW_LENGTH_PREFIX, rawJsonBytes, 0, rawLength);
-
-
-        String jsonStr = new String(rawJsonBytes);
-        SLogger.d(TAG, "soter: to convert json: " + jsonStr);
-        SoterPubKeyModel model = new SoterPubKeyModel(jsonStr, "");
-        int signatureLength = origin.length - (RAW_LENGTH_PREFIX + rawLength);
-        SLogger.d(TAG, "soter: signature length: " + signatureLength);
-        byte[] signature = new byte[signatureLength];
-        System.arraycopy(origin, rawLength + RAW_LENGTH_PREFIX, signature, 0, signatureLength);
-        model.setSignature(Base64.encodeToString(signature, Base64.NO_WRAP));
-        return model;
-    }
-
     /**
      * Judge whether there's fingerprint sensor in this device
      * @param context The context
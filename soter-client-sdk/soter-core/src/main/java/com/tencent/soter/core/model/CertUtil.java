@@ -1,11 +1,9 @@
 package com.tencent.soter.core.model;
 
-import android.util.Base64;
 import org.json.JSONObject;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 
@@ -20,54 +18,89 @@ public class CertUtil
 
     private static final int LINE_LENGTH = 64;
     private static final String LINE_SEPARATOR = "\n";
+    private static final String PEM_CERTIFICATE_BEGIN = "-----BEGIN CERTIFICATE-----" + LINE_SEPARATOR;
+    private static final String PEM_CERTIFICATE_END = "-----END CERTIFICATE-----" + LINE_SEPARATOR;
+    private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
     private static final String KEY_DESCRIPTION_OID = "1.3.6.1.4.1.11129.2.1.17";
     public static final String JSON_KEY_COUNTER = "counter";
     public static final String JSON_KEY_CPU_ID = "cpu_id";
     public static final String JSON_KEY_UID = "uid";
 
-    private static void writeEncoded(BufferedWriter writer, byte[] bytes)  throws IOException
+    private static final int DER_TAG_OCTET_STRING = 0x04;
+    private static final int DER_TAG_SEQUENCE = 0x30;
+    private static final int ATTESTATION_CHALLENGE_INDEX = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static int pemLength(int encodedLength)
     {
-        char[]  buf = new char[LINE_LENGTH];
-        for (int i = 0; i < bytes.length; i += buf.length)
-        {
-            int index = 0;
-            while (index != buf.length)
-            {
-                if ((i + index) >= bytes.length)
-                {
-                    break;
-                }
-                buf[index] = (char)bytes[i + index];
-                index++;
-            }
-            writer.write(buf, 0, index);
-            writer.write(LINE_SEPARATOR);
-        }
+        int base64Length = (encodedLength + 2) / 3 * 4;
+        int lineCount = (base64Length + LINE_LENGTH - 1) / LINE_LENGTH;
+        return PEM_CERTIFICATE_BEGIN.length() + base64Length + lineCount * LINE_SEPARATOR.length() + PEM_CERTIFICATE_END.length();
     }
 
-    private static void writePreEncapsulationBoundary(BufferedWriter writer, String type) throws IOException
+    private static int writeString(char[] out, int position, String str)
     {
-        writer.write("-----BEGIN " + type + "-----");
-        writer.write(LINE_SEPARATOR);
+        str.getChars(0, str.length(), out, position);
+        return position + str.length();
     }
 
-    private static void writePostEncapsulationBoundary(BufferedWriter writer, String type) throws IOException
+    /**
+     * Write the Base64 of the bytes, with a line separator after every LINE_LENGTH chars and after the last line
+     */
+    private static int writeEncoded(char[] out, int position, byte[] bytes)
     {
-        writer.write("-----END " + type + "-----");
-        writer.write(LINE_SEPARATOR);
+        int lineChars = 0;
+        for (int i = 0; i < bytes.length; i += 3)
+        {
+            int remaining = bytes.length - i;
+            int bits = (bytes[i] & 0xFF) << 16;
+            if (remaining > 1)
+            {
+                bits |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (remaining > 2)
+            {
+                bits |= bytes[i + 2] & 0xFF;
+            }
+            out[position++] = BASE64_CHARS[(bits >>> 18) & 0x3F];
+            out[position++] = BASE64_CHARS[(bits >>> 12) & 0x3F];
+            out[position++] = remaining > 1 ? BASE64_CHARS[(bits >>> 6) & 0x3F] : '=';
+            out[position++] = remaining > 2 ? BASE64_CHARS[bits & 0x3F] : '=';
+            lineChars += 4;
+            if (lineChars == LINE_LENGTH || remaining <= 3)
+            {
+                position = writeString(out, position, LINE_SEPARATOR);
+                lineChars = 0;
+            }
+        }
+        return position;
     }
 
     public static String format(Certificate certificate) throws Exception{
-        String type = "CERTIFICATE";
-        StringWriter stringWriter = new StringWriter();
-        BufferedWriter bufferedWriter = new BufferedWriter(stringWriter);
-
-        writePreEncapsulationBoundary(bufferedWriter, type);
-        writeEncoded(bufferedWriter, Base64.encode(certificate.getEncoded(), Base64.NO_WRAP));
-        writePostEncapsulationBoundary(bufferedWriter, type);
-        bufferedWriter.close();
+        return format(new Certificate[] {certificate});
+    }
 
-        return stringWriter.toString();
+    /**
+     * Format the certificates to PEM one after another, e.g. a whole certificate chain. The exact length is computed first,
+     * then every certificate is encoded into a single buffer in one pass.
+     */
+    public static String format(Certificate[] certificates) throws Exception{
+        byte[][] encoded = new byte[certificates.length][];
+        int length = 0;
+        for (int i = 0; i < certificates.length; i++)
+        {
+            encoded[i] = certificates[i].getEncoded();
+            length += pemLength(encoded[i].length);
+        }
+        char[] out = new char[length];
+        int position = 0;
+        for (byte[] bytes : encoded)
+        {
+            position = writeString(out, position, PEM_CERTIFICATE_BEGIN);
+            position = writeEncoded(out, position, bytes);
+            position = writeString(out, position, PEM_CERTIFICATE_END);
+        }
+        return new String(out);
     }
 
     public static void extractAttestationSequence(X509Certificate attestationCert, SoterPubKeyModel soterPubKeyModel) throws Exception, IOException {
@@ -76,39 +109,125 @@ public class CertUtil
             throw new Exception("Couldn't find the keystore attestation " + "extension data.");
         }
 
+        int[] jsonRange = locateAttestationChallenge(attestationExtensionBytes);
+        if (jsonRange == null) {
+            SLogger.w(TAG, "soter: attestation extension is not well formed DER, search the json by braces");
+            jsonRange = locateJsonByBraces(attestationExtensionBytes);
+        }
+        if (jsonRange != null) {
+            String jsonString = new String(attestationExtensionBytes, jsonRange[0], jsonRange[1], UTF_8);
+
+            SLogger.i(TAG, "soter: challenge json in attestation certificate " + jsonString);
+
+            JSONObject jsonObject = new JSONObject(jsonString);
+
+            soterPubKeyModel.setCpu_id(jsonObject.getString(JSON_KEY_CPU_ID));
+            soterPubKeyModel.setUid(jsonObject.getInt(JSON_KEY_UID));
+            soterPubKeyModel.setCounter(jsonObject.getLong(JSON_KEY_COUNTER));
+        }
+    }
+
+    /**
+     * Locate the attestationChallenge field of the KeyDescription by the TLV lengths. The extension value is an OCTET STRING
+     * wrapping the KeyDescription SEQUENCE, and the challenge is the fifth element of the SEQUENCE, after attestationVersion,
+     * attestationSecurityLevel, keymasterVersion and keymasterSecurityLevel. Only the headers before the challenge are read.
+     * @return {offset, length} of the challenge json, or null if the DER is malformed or the challenge is not a json object
+     */
+    private static int[] locateAttestationChallenge(byte[] der) {
+        int[] header = new int[3];
+        if (!readHeader(der, 0, der.length, header) || header[0] != DER_TAG_OCTET_STRING) {
+            return null;
+        }
+        int limit = header[1] + header[2];
+        if (!readHeader(der, header[1], limit, header) || header[0] != DER_TAG_SEQUENCE) {
+            return null;
+        }
+        limit = header[1] + header[2];
+        int position = header[1];
+        for (int i = 0; i < ATTESTATION_CHALLENGE_INDEX; i++) {
+            if (!readHeader(der, position, limit, header)) {
+                return null;
+            }
+            position = header[1] + header[2];
+        }
+        if (!readHeader(der, position, limit, header) || header[0] != DER_TAG_OCTET_STRING
+                || header[2] < 2 || der[header[1]] != '{') {
+            return null;
+        }
+        return new int[] {header[1], header[2]};
+    }
+
+    /**
+     * Read the TLV header at the position.
+     * @param result filled with {tag, value offset, value length}
+     * @return false if the header is malformed or the value exceeds the limit
+     */
+    private static boolean readHeader(byte[] der, int position, int limit, int[] result) {
+        if (position + 2 > limit) {
+            return false;
+        }
+        int tag = der[position++] & 0xFF;
+        if ((tag & 0x1F) == 0x1F) {
+            // high tag number form, the tag number continues while the highest bit is set
+            int count = 0;
+            do {
+                if (position >= limit || ++count > 4) {
+                    return false;
+                }
+            } while ((der[position++] & 0x80) != 0);
+            if (position >= limit) {
+                return false;
+            }
+        }
+        int length = der[position++] & 0xFF;
+        if (length == 0x80) {
+            // indefinite length is not allowed in DER
+            return false;
+        }
+        if (length > 0x80) {
+            int lengthBytes = length & 0x7F;
+            if (lengthBytes > 4 || position + lengthBytes > limit) {
+                return false;
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (der[position++] & 0xFF);
+            }
+            if (length < 0) {
+                return false;
+            }
+        }
+        if (length > limit - position) {
+            return false;
+        }
+        result[0] = tag;
+        result[1] = position;
+        result[2] = length;
+        return true;
+    }
+
+    /**
+     * The old heuristic, which takes the bytes between the last '{' and the last '}' as the json
+     * @return {offset, length} of the json, or null if there's none
+     */
+    private static int[] locateJsonByBraces(byte[] attestationExtensionBytes) {
         int jsonStartOff = 0;
         int jsonEndOff = 0;
-        int jsonLength = 0;
-
-        byte jsonStartTag = "{".getBytes()[0];
-        byte jsonEndTag = "}".getBytes()[0];
 
         for (int i = 0; i < attestationExtensionBytes.length; i++) {
             byte b = attestationExtensionBytes[i];
-            if (b==jsonStartTag) {
+            if (b == '{') {
                 jsonStartOff = i;
-            }else if(b==jsonEndTag){
+            } else if (b == '}') {
                 jsonEndOff = i;
             }
         }
         if (jsonStartOff > 0 && jsonStartOff < jsonEndOff) {
             if (attestationExtensionBytes[jsonStartOff-1]!=(jsonEndOff-jsonStartOff+1)) {
-//                throw new Exception("read extension data error");
                 SLogger.w(TAG, "read extension lenght error");
             }
-            jsonLength = (jsonEndOff-jsonStartOff+1);
-
-            byte[] jsonBytes = new byte[jsonLength];
-            System.arraycopy(attestationExtensionBytes, jsonStartOff, jsonBytes, 0, jsonLength);
-            String jsonString = new String(jsonBytes);
-
-            SLogger.i(TAG, "soter: challenge json in attestation certificate " + jsonString);
-
-            JSONObject jsonObject = new JSONObject(jsonString);
-
-            soterPubKeyModel.setCpu_id(jsonObject.getString(JSON_KEY_CPU_ID));
-            soterPubKeyModel.setUid(jsonObject.getInt(JSON_KEY_UID));
-            soterPubKeyModel.setCounter(jsonObject.getLong(JSON_KEY_COUNTER));
+            return new int[] {jsonStartOff, jsonEndOff - jsonStartOff + 1};
         }
+        return null;
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Tencent is pleased to support the open source community by making TENCENT SOTER available.
+ * Copyright (C) 2017 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ * https://opensource.org/licenses/BSD-3-Clause
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package com.tencent.soter.core.model;
+
+/**
+ * The status of one Auth Key returned by the batch query SoterCore.queryAuthKeys.
+ */
+@SuppressWarnings("unused")
+public class SoterAuthKeyStatus {
+    private final String authKeyName;
+    private final boolean exist;
+    private final boolean validityChecked;
+    private final boolean valid;
+    private final SoterPubKeyModel model;
+
+    public SoterAuthKeyStatus(String authKeyName, boolean exist, boolean validityChecked, boolean valid, SoterPubKeyModel model) {
+        this.authKeyName = authKeyName;
+        this.exist = exist;
+        this.validityChecked = validityChecked;
+        this.valid = valid;
+        this.model = model;
+    }
+
+    public String getAuthKeyName() {
+        return authKeyName;
+    }
+
+    /**
+     * @return true if there's already a pair of auth key by the name
+     */
+    public boolean isExist() {
+        return exist;
+    }
+
+    /**
+     * @return true if the validity of the key is checked in the query
+     */
+    public boolean isValidityChecked() {
+        return validityChecked;
+    }
+
+    /**
+     * @return true if the key exists and is checked to be valid
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return The public key model of the key if it's requested in the query and the key is valid, null otherwise
+     */
+    public SoterPubKeyModel getModel() {
+        return model;
+    }
+
+    @Override
+    public String toString() {
+        return "SoterAuthKeyStatus{" +
+                "authKeyName='" + authKeyName + '\'' +
+                ", exist=" + exist +
+                ", validityChecked=" + validityChecked +
+                ", valid=" + valid +
+                ", hasModel=" + (model != null) +
+                '}';
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Tencent is pleased to support the open source community by making TENCENT SOTER available.
+ * Copyright (C) 2017 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ * https://opensource.org/licenses/BSD-3-Clause
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package com.tencent.soter.core.model;
+
+import android.util.Base64;
+
+import java.nio.charset.Charset;
+
+/**
+ * The codec of the data exported from TEE, which is the exported public key or the result of {@link java.security.Signature#sign()}.
+ * The layout is [4 bytes little endian json length][json in UTF-8][signature]. The regions are located in place, so nothing is
+ * copied until a String is really needed.
+ */
+public class SoterExportCodec {
+    private static final String TAG = "Soter.SoterExportCodec";
+
+    private static final int RAW_LENGTH_PREFIX = 4;
+
+    private static final int MAX_JSON_LENGTH = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] origin;
+    private final int jsonLength;
+    private final int signatureOffset;
+    private final int signatureLength;
+
+    private SoterExportCodec(byte[] origin, int jsonLength) {
+        this.origin = origin;
+        this.jsonLength = jsonLength;
+        this.signatureOffset = RAW_LENGTH_PREFIX + jsonLength;
+        this.signatureLength = origin.length - signatureOffset;
+    }
+
+    /**
+     * Locate the json and signature regions of the exported data. The data is not copied, so it should not be modified afterwards.
+     * @param origin The exported data
+     * @return The decoded data, or null if the data is null, too short or the json length is out of range
+     */
+    public static SoterExportCodec decode(byte[] origin) {
+        if (origin == null) {
+            SLogger.e(TAG, "soter: raw data is null");
+            return null;
+        }
+        if (origin.length < RAW_LENGTH_PREFIX) {
+            SLogger.e(TAG, "soter: raw data length smaller than RAW_LENGTH_PREFIX");
+            return null;
+        }
+        int rawLength = readLength(origin, 0);
+        SLogger.d(TAG, "soter: parsed raw length: " + rawLength);
+        if (rawLength < 0 || rawLength > MAX_JSON_LENGTH) {
+            SLogger.e(TAG, "soter: json length out of range: " + rawLength);
+            return null;
+        }
+        if (origin.length - RAW_LENGTH_PREFIX < rawLength) {
+            SLogger.e(TAG, "soter: raw data length smaller than json length");
+            return null;
+        }
+        return new SoterExportCodec(origin, rawLength);
+    }
+
+    /**
+     * Read the little endian length at the offset
+     */
+    private static int readLength(byte[] origin, int offset) {
+        return (origin[offset] & 0xFF)
+                | (origin[offset + 1] & 0xFF) << 8
+                | (origin[offset + 2] & 0xFF) << 16
+                | (origin[offset + 3] & 0xFF) << 24;
+    }
+
+    public int getSignatureLength() {
+        return signatureLength;
+    }
+
+    public boolean hasSignature() {
+        return signatureLength > 0;
+    }
+
+    /**
+     * @return The json decoded in UTF-8
+     */
+    public String getJson() {
+        return new String(origin, RAW_LENGTH_PREFIX, jsonLength, UTF_8);
+    }
+
+    /**
+     * @return The signature in Base64 without wrap, or an empty string if there's no signature
+     */
+    public String getSignatureBase64() {
+        if (signatureLength == 0) {
+            return "";
+        }
+        return Base64.encodeToString(origin, signatureOffset, signatureLength, Base64.NO_WRAP);
+    }
+}
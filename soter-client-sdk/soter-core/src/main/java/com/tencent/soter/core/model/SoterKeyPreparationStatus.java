@@ -0,0 +1,47 @@
+/*
+ * Tencent is pleased to support the open source community by making TENCENT SOTER available.
+ * Copyright (C) 2017 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ * https://opensource.org/licenses/BSD-3-Clause
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package com.tencent.soter.core.model;
+
+/**
+ * The status of the App Secure Key and one Auth Key returned by SoterCore.queryKeyPreparation, which is all that's
+ * needed to decide whether the Auth Key should be prepared.
+ */
+@SuppressWarnings("unused")
+public class SoterKeyPreparationStatus {
+    private final boolean askValid;
+    private final SoterAuthKeyStatus authKeyStatus;
+
+    public SoterKeyPreparationStatus(boolean askValid, SoterAuthKeyStatus authKeyStatus) {
+        this.askValid = askValid;
+        this.authKeyStatus = authKeyStatus;
+    }
+
+    /**
+     * @return true if the App Secure Key exists and its model can be retrieved, see SoterCore.isAppGlobalSecureKeyValid
+     */
+    public boolean isAskValid() {
+        return askValid;
+    }
+
+    /**
+     * @return The status of the Auth Key. Its validity may not be checked if the App Secure Key is not valid
+     */
+    public SoterAuthKeyStatus getAuthKeyStatus() {
+        return authKeyStatus;
+    }
+
+    @Override
+    public String toString() {
+        return "SoterKeyPreparationStatus{" +
+                "askValid=" + askValid +
+                ", authKeyStatus=" + authKeyStatus +
+                '}';
+    }
+}
@@ -9,8 +9,6 @@
 
 package com.tencent.soter.core.model;
 
-import android.util.Base64;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,8 +40,13 @@ public class SoterPubKeyModel {
     private String rawJson = "";
     private ArrayList<String> certs = null;
 
+    // the inputs not parsed yet. They're parsed once, when a field depending on them is first read
+    private String pendingJson = null;
+    private Certificate[] pendingCertificates = null;
+
     @Override
     public String toString() {
+        materialize(false);
         return "SoterPubKeyModel{" +
                 "counter=" + counter +
                 ", uid=" + uid +
@@ -65,9 +68,50 @@ public class SoterPubKeyModel {
         this.signature = signature;
     }
 
+    /**
+     * The json is not parsed here. Callers only forwarding {@link #getRawJson()} and {@link #getSignature()} do not pay for
+     * parsing, and the certificates in it are parsed only when the device info is first read.
+     */
     public SoterPubKeyModel(String rawJson, String signature) {
+        this.rawJson = rawJson;
+        this.pendingJson = rawJson;
+        this.signature = signature;
+    }
+
+    /**
+     * The certificates are formatted and parsed when any field is first read.
+     */
+    public SoterPubKeyModel(Certificate[] certificates){
+        this.pendingCertificates = certificates;
+    }
+
+    /**
+     * Parse the pending inputs once.
+     * @param rawJsonOnly true if only the raw json is needed, then a json without certificates is not parsed, because its raw
+     *                    json is not changed by parsing
+     */
+    private synchronized void materialize(boolean rawJsonOnly) {
+        if (pendingJson != null) {
+            if (rawJsonOnly && !mayContainCerts(pendingJson)) {
+                return;
+            }
+            String json = pendingJson;
+            pendingJson = null;
+            parseJson(json);
+        } else if (pendingCertificates != null) {
+            Certificate[] certificates = pendingCertificates;
+            pendingCertificates = null;
+            parseCertificates(certificates);
+        }
+    }
+
+    private static boolean mayContainCerts(String json) {
+        // the key may only be hidden by unicode escapes
+        return json.contains(JSON_KEY_CERTS) || json.contains("\\u");
+    }
+
+    private void parseJson(String rawJson) {
         JSONObject jsonObj;
-        setRawJson(rawJson);
         try {
             jsonObj = new JSONObject(rawJson);
 //            this.rawJson = jsonObj.toString();
@@ -88,7 +132,7 @@ public class SoterPubKeyModel {
                 jsonObj.put(JSON_KEY_CPU_ID, cpu_id);
                 jsonObj.put(JSON_KEY_UID, uid);
                 jsonObj.put(JSON_KEY_COUNTER, counter);
-                setRawJson(jsonObj.toString());
+                this.rawJson = jsonObj.toString();
             }else{
                 this.counter = jsonObj.optLong(JSON_KEY_COUNTER);
                 this.uid = jsonObj.optInt(JSON_KEY_UID);
@@ -98,10 +142,9 @@ public class SoterPubKeyModel {
         } catch (Exception e) {
             SLogger.e(TAG, "soter: pub key model failed");
         }
-        this.signature = signature;
     }
 
-    public SoterPubKeyModel(Certificate[] certificates){
+    private void parseCertificates(Certificate[] certificates) {
         try {
             if(certificates != null){
                 ArrayList<String> certTexts = new ArrayList<String>();
@@ -109,8 +152,7 @@ public class SoterPubKeyModel {
                 for (int i = 0; i < certificates.length; i++) {
                     Certificate certificate = certificates[i];
 
-                    String certText = Base64.encodeToString(certificate.getEncoded(), Base64.NO_WRAP);
-                    certText = CertUtil.format(certificate);
+                    String certText = CertUtil.format(certificate);
                     if (i == 0){
                         loadDeviceInfo((X509Certificate)certificate);
                     }
@@ -124,7 +166,7 @@ public class SoterPubKeyModel {
                 jsonObj.put(JSON_KEY_CPU_ID, cpu_id);
                 jsonObj.put(JSON_KEY_UID, uid);
                 jsonObj.put(JSON_KEY_COUNTER, counter);
-                setRawJson(jsonObj.toString());
+                this.rawJson = jsonObj.toString();
             }
         }catch (Exception e){
             SLogger.e(TAG, "soter: pub key model failed");
@@ -142,18 +184,22 @@ public class SoterPubKeyModel {
 
 
     public void setCounter(long counter) {
+        materialize(false);
         this.counter = counter;
     }
 
     public void setUid(int uid) {
+        materialize(false);
         this.uid = uid;
     }
 
     public void setCpu_id(String cpu_id) {
+        materialize(false);
         this.cpu_id = cpu_id;
     }
 
     public void setPub_key_in_x509(String pub_key_in_x509) {
+        materialize(false);
         this.pub_key_in_x509 = pub_key_in_x509;
     }
 
@@ -162,18 +208,22 @@ public class SoterPubKeyModel {
     }
 
     public long getCounter() {
+        materialize(false);
         return counter;
     }
 
     public int getUid() {
+        materialize(false);
         return uid;
     }
 
     public String getCpu_id() {
+        materialize(false);
         return cpu_id;
     }
 
     public String getPub_key_in_x509() {
+        materialize(false);
         return pub_key_in_x509;
     }
 
@@ -182,10 +232,12 @@ public class SoterPubKeyModel {
     }
 
     public String getRawJson() {
+        materialize(true);
         return rawJson;
     }
 
     public void setRawJson(String rawJson) {
+        materialize(false);
         this.rawJson = rawJson;
     }
 }
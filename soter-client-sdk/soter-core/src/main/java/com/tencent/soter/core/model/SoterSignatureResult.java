@@ -12,6 +12,9 @@ package com.tencent.soter.core.model;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
 /**
  * The signature model generated in TEE after authenticated by user's enrolled fingerprint.
  */
@@ -102,7 +105,24 @@ public class SoterSignatureResult {
     public SoterSignatureResult() {
     }
 
+    /**
+     * Convert the json exported from TEE to the signature model. The known SOTER fields are decoded in a single pass over the
+     * json text, without building a {@link JSONObject}. Json out of the common shape, such as duplicated keys, escaped keys or
+     * values of unexpected types, is still parsed by {@link JSONObject} so the result is the same. The json is kept as it is in
+     * {@link #getJsonValue()}, because the signature is verified over it.
+     */
     public static SoterSignatureResult convertFromJson(String jsonStr) {
+        if (jsonStr != null) {
+            SoterSignatureResult result = new SoterSignatureResult();
+            if (new StreamingDecoder(jsonStr).decodeInto(result)) {
+                result.setJsonValue(jsonStr);
+                return result;
+            }
+        }
+        return convertFromJsonObject(jsonStr);
+    }
+
+    private static SoterSignatureResult convertFromJsonObject(String jsonStr) {
 //        this.jsonValue = jsonStr;
         try {
             JSONObject jsonObj = new JSONObject(jsonStr);
@@ -124,6 +144,308 @@ public class SoterSignatureResult {
         }
     }
 
+    /**
+     * Decodes the known keys of a flat json object straight into the result. {@link #decodeInto(SoterSignatureResult)}
+     * returns false whenever the json may be understood differently by {@link JSONObject}, and the caller falls back to it.
+     */
+    private static final class StreamingDecoder {
+        private static final String[] KEYS = {SIGNATURE_KEY_RAW, SIGNATURE_KEY_FID, SIGNATURE_KEY_COUNTER,
+                SIGNATURE_KEY_TEE_NAME, SIGNATURE_KEY_TEE_VERSION, SIGNATURE_KEY_FP_NAME, SIGNATURE_KEY_FP_VERSION,
+                SIGNATURE_KEY_CPU_ID, SIGNATURE_KEY_SALTLEN};
+        private static final int INDEX_COUNTER = 2;
+        private static final int INDEX_SALTLEN = 8;
+        // the longest decimal which always fits in a long
+        private static final int MAX_DIGITS = 18;
+        private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+        private final String json;
+        private final int length;
+        private int position = 0;
+        private int seenKeys = 0;
+        private ArrayList<String> unknownKeys = null;
+
+        StreamingDecoder(String json) {
+            this.json = json;
+            this.length = json.length();
+        }
+
+        boolean decodeInto(SoterSignatureResult result) {
+            // the same defaults as the opt methods of JSONObject
+            result.setRawValue("");
+            result.setFid("");
+            result.setCounter(0);
+            result.setCpuId("");
+            result.setSaltLen(DEFAULT_SALT_LEN);
+
+            skipWhitespace();
+            if (!consume('{')) {
+                return false;
+            }
+            skipWhitespace();
+            if (consume('}')) {
+                return isEnd();
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString(false);
+                if (key == null) {
+                    return false;
+                }
+                skipWhitespace();
+                if (!consume(':')) {
+                    return false;
+                }
+                skipWhitespace();
+                int index = indexOfKey(key);
+                if (index >= 0) {
+                    if ((seenKeys & (1 << index)) != 0) {
+                        return false;
+                    }
+                    seenKeys |= 1 << index;
+                    if (!readField(index, result)) {
+                        return false;
+                    }
+                } else if (!addUnknownKey(key) || !skipValue()) {
+                    return false;
+                }
+                skipWhitespace();
+                if (consume(',')) {
+                    continue;
+                }
+                return consume('}') && isEnd();
+            }
+        }
+
+        private boolean readField(int index, SoterSignatureResult result) {
+            if (index == INDEX_COUNTER || index == INDEX_SALTLEN) {
+                int start = position;
+                long value = readLong();
+                if (position == start) {
+                    return false;
+                }
+                if (index == INDEX_COUNTER) {
+                    result.setCounter(value);
+                } else {
+                    result.setSaltLen((int) value);
+                }
+                return true;
+            }
+            String value = readString(true);
+            if (value == null) {
+                return false;
+            }
+            switch (index) {
+                case 0:
+                    result.setRawValue(value);
+                    break;
+                case 1:
+                    result.setFid(value);
+                    break;
+                case 3:
+                    result.setTEEName(value);
+                    break;
+                case 4:
+                    result.setTEEVersion(value);
+                    break;
+                case 5:
+                    result.setFpName(value);
+                    break;
+                case 6:
+                    result.setFpVersion(value);
+                    break;
+                default:
+                    result.setCpuId(value);
+                    break;
+            }
+            return true;
+        }
+
+        /**
+         * @return false if the key is duplicated, some json parsers reject it while the others keep the last value
+         */
+        private boolean addUnknownKey(String key) {
+            if (unknownKeys == null) {
+                unknownKeys = new ArrayList<String>();
+            } else if (unknownKeys.contains(key)) {
+                return false;
+            }
+            unknownKeys.add(key);
+            return true;
+        }
+
+        private static int indexOfKey(String key) {
+            for (int i = 0; i < KEYS.length; i++) {
+                if (KEYS[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @param allowEscapes false to reject escaped strings, then escaped keys are left to {@link JSONObject}
+         * @return the string at the position, or null if it's not a plain json string
+         */
+        private String readString(boolean allowEscapes) {
+            if (!consume('"')) {
+                return null;
+            }
+            int start = position;
+            while (position < length) {
+                char c = json.charAt(position);
+                if (c == '"') {
+                    return json.substring(start, position++);
+                }
+                if (c == '\\') {
+                    return allowEscapes ? readEscapedString(start) : null;
+                }
+                position++;
+            }
+            return null;
+        }
+
+        private String readEscapedString(int start) {
+            StringBuilder builder = new StringBuilder(json.length() - start);
+            builder.append(json, start, position);
+            while (position < length) {
+                char c = json.charAt(position++);
+                if (c == '"') {
+                    return builder.toString();
+                }
+                if (c != '\\') {
+                    builder.append(c);
+                    continue;
+                }
+                if (position >= length) {
+                    return null;
+                }
+                char escaped = json.charAt(position++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        builder.append(escaped);
+                        break;
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > length) {
+                            return null;
+                        }
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(json.charAt(position++), 16);
+                            if (digit < 0) {
+                                return null;
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        builder.append((char) code);
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Read a plain decimal integer. The position is not moved if the value is not one, e.g. it has a fraction, an exponent,
+         * leading zeros or too many digits.
+         */
+        private long readLong() {
+            int start = position;
+            int index = position;
+            boolean negative = index < length && json.charAt(index) == '-';
+            if (negative) {
+                index++;
+            }
+            int digitStart = index;
+            long value = 0;
+            while (index < length && json.charAt(index) >= '0' && json.charAt(index) <= '9') {
+                value = value * 10 + (json.charAt(index) - '0');
+                index++;
+            }
+            int digits = index - digitStart;
+            if (digits == 0 || digits > MAX_DIGITS || (digits > 1 && json.charAt(digitStart) == '0')) {
+                return 0;
+            }
+            if (index < length && !isValueEnd(json.charAt(index))) {
+                return 0;
+            }
+            position = index;
+            return negative ? -value : value;
+        }
+
+        /**
+         * Skip the value of an unknown key. Nested objects and arrays are left to {@link JSONObject}.
+         */
+        private boolean skipValue() {
+            if (position >= length) {
+                return false;
+            }
+            char c = json.charAt(position);
+            if (c == '"') {
+                return readString(true) != null;
+            }
+            if (c == '{' || c == '[') {
+                return false;
+            }
+            int start = position;
+            while (position < length && !isValueEnd(json.charAt(position))) {
+                position++;
+            }
+            int literalLength = position - start;
+            // other literals are accepted by some json parsers only, leave them to JSONObject
+            return isLiteral(start, literalLength, "true") || isLiteral(start, literalLength, "false")
+                    || isLiteral(start, literalLength, "null") || (literalLength > 0 && NUMBER.matcher(json).region(start, position).matches());
+        }
+
+        private boolean isLiteral(int start, int literalLength, String literal) {
+            return literalLength == literal.length() && json.startsWith(literal, start);
+        }
+
+        private static boolean isValueEnd(char c) {
+            return c == ',' || c == '}' || c == ' ' || c == '\t' || c == '\r' || c == '\n';
+        }
+
+        private void skipWhitespace() {
+            while (position < length) {
+                char c = json.charAt(position);
+                if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private boolean consume(char expected) {
+            if (position < length && json.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean isEnd() {
+            skipWhitespace();
+            return position == length;
+        }
+    }
+
     private void setRawValue(String rawValue) {
         this.rawValue = rawValue;
     }
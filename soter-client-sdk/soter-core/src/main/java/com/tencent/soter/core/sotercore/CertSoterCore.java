@@ -46,6 +46,8 @@ public class CertSoterCore extends SoterCoreBeforeTreble {
                 generator.initialize(spec);
                 long currentTicks = SoterCoreUtil.getCurrentTicks();
                 generator.generateKeyPair();
+                SoterKeyStoreCache.invalidate(providerName);
+                SoterSignaturePool.invalidateAll();
                 long cost = SoterCoreUtil.ticksToNowInMs(currentTicks);
                 SLogger.i(TAG, "soter: generate successfully. cost: %d ms", cost);
                 SoterDelegate.reset();
@@ -72,8 +74,7 @@ public class CertSoterCore extends SoterCoreBeforeTreble {
 
             KeyStore keyStore;
             try {
-                keyStore = KeyStore.getInstance(providerName);
-                keyStore.load(null);
+                keyStore = SoterKeyStoreCache.get(providerName);
                 try {
                     Certificate[] certificates = keyStore.getCertificateChain(SoterCoreData.getInstance().getAskName());
                     if (certificates != null) {
@@ -115,8 +116,7 @@ public class CertSoterCore extends SoterCoreBeforeTreble {
             return null;
         }
         final Signature signature = Signature.getInstance("SHA256withRSA/PSS");
-        KeyStore soterKeyStore = KeyStore.getInstance(providerName);
-        soterKeyStore.load(null);
+        KeyStore soterKeyStore = SoterKeyStoreCache.get(providerName);
         Key key = soterKeyStore.getKey(useKeyAlias, null);
         if (key != null) {
             signature.initSign((PrivateKey) key);
@@ -1,10 +1,12 @@
 package com.tencent.soter.core.sotercore;
 
 import android.content.Context;
-import android.util.Base64;
 
 import com.tencent.soter.core.model.SLogger;
+import com.tencent.soter.core.model.SoterAuthKeyStatus;
 import com.tencent.soter.core.model.SoterCoreResult;
+import com.tencent.soter.core.model.SoterExportCodec;
+import com.tencent.soter.core.model.SoterKeyPreparationStatus;
 import com.tencent.soter.core.model.SoterPubKeyModel;
 import com.tencent.soter.soterserver.SoterSessionResult;
 
@@ -16,6 +18,8 @@ import java.security.NoSuchProviderException;
 import java.security.Signature;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -104,6 +108,16 @@ public abstract class SoterCoreBase {
      */
     public abstract Signature getAuthInitAndSign(String useKeyAlias);
 
+    /**
+     * Initialize the {@link Signature} of the key ahead of time, so that the next {@link #getAuthInitAndSign(String)} of the key
+     * returns it without initializing again. Only the cores which authenticate with a Signature object support it.
+     * @param useKeyAlias The Auth Key alias
+     * @return true if the signature is prepared
+     */
+    public boolean prepareAuthInitAndSign(String useKeyAlias) {
+        return false;
+    }
+
     /**
      * If there's already a pair of auth key by the given key alias
      * @param authKeyName The key alias to check
@@ -126,6 +140,41 @@ public abstract class SoterCoreBase {
      */
     public abstract byte[] finishSign(long signSession) throws Exception;
 
+    /**
+     * Query the status of several auth keys at once. The implementations answer all the keys with one keystore load or the
+     * fewest service calls they can.
+     * @param checkValidity true to check whether each existing key is valid
+     * @param withModel true to retrieve the public key model of each valid key as well, which implies checkValidity
+     * @param authKeyNames The key aliases to query
+     * @return The status of each key, in the same order as the names
+     */
+    public List<SoterAuthKeyStatus> queryAuthKeys(boolean checkValidity, boolean withModel, String... authKeyNames) {
+        boolean isCheckValidity = checkValidity || withModel;
+        List<SoterAuthKeyStatus> result = new ArrayList<>(authKeyNames.length);
+        for (String authKeyName : authKeyNames) {
+            boolean exist = hasAuthKey(authKeyName);
+            boolean valid = exist && isCheckValidity && isAuthKeyValid(authKeyName, false);
+            SoterPubKeyModel model = valid && withModel ? getAuthKeyModel(authKeyName) : null;
+            result.add(new SoterAuthKeyStatus(authKeyName, exist, exist && isCheckValidity, valid, model));
+        }
+        return result;
+    }
+
+    /**
+     * Query whether the App Secure Key is valid and the status of the auth key at once, to decide whether the auth key
+     * should be prepared. By default the validity of the auth key is checked only if the App Secure Key is valid, since the
+     * auth key has to be removed otherwise.
+     * @param authKeyName The key alias to query
+     * @param withModel true to retrieve the public key model of the auth key as well if it's valid
+     * @return The status of both keys
+     */
+    public SoterKeyPreparationStatus queryKeyPreparation(String authKeyName, boolean withModel) {
+        boolean isAskValid = isAppGlobalSecureKeyValid();
+        SoterAuthKeyStatus authKeyStatus = isAskValid ? queryAuthKeys(true, withModel, authKeyName).get(0)
+                : new SoterAuthKeyStatus(authKeyName, hasAuthKey(authKeyName), false, false, null);
+        return new SoterKeyPreparationStatus(isAskValid, authKeyStatus);
+    }
+
     /**
      * Only in TrebleCore this method can be meaningful
      * @return weather the Soter Service is connected
@@ -161,55 +210,18 @@ public abstract class SoterCoreBase {
             UnrecoverableEntryException;
 
 
-    protected static final int RAW_LENGTH_PREFIX = 4;
-
-    protected static int toInt(byte[] bRefArr) {
-        int iOutcome = 0;
-        byte bLoop;
-
-        for (int i = 0; i < bRefArr.length; i++) {
-            bLoop = bRefArr[i];
-            iOutcome += (bLoop & 0xFF) << (8 * i);
-        }
-        return iOutcome;
-    }
-
-
-
     // Magic warning. Do not modify anyway
     protected static SoterPubKeyModel retrieveJsonFromExportedData(byte[] origin) {
-        if (origin == null) {
-            SLogger.e(TAG, "soter: raw data is null");
+        SoterExportCodec codec = SoterExportCodec.decode(origin);
+        if (codec == null) {
             return null;
         }
-        if (origin.length < RAW_LENGTH_PREFIX) {
-            SLogger.e(TAG, "soter: raw data length smaller than RAW_LENGTH_PREFIX");
-        }
-        byte[] lengthBytes = new byte[4];
-        System.arraycopy(origin, 0, lengthBytes, 0, 4);
-        int rawLength = toInt(lengthBytes);
-        SLogger.d(TAG, "soter: parsed raw length: " + rawLength);
-        if(rawLength > 1024 * 1024) {
-            SLogger.e(TAG, "soter: too large json result!");
-            return null;
-        }
-        byte[] rawJsonBytes = new byte[rawLength];
-        if (origin.length < RAW_LENGTH_PREFIX + rawLength) {
-            SLogger.e(TAG, "length not correct 2");
-            return null;
-        }
-        System.arraycopy(origin, RAW_LENGTH_PREFIX, rawJsonBytes, 0, rawLength);
-
-
-        String jsonStr = new String(rawJsonBytes);
+        String jsonStr = codec.getJson();
         SLogger.d(TAG, "soter: to convert json: " + jsonStr);
         SoterPubKeyModel model = new SoterPubKeyModel(jsonStr, "");
-        int signatureLength = origin.length - (RAW_LENGTH_PREFIX + rawLength);
-        SLogger.d(TAG, "soter: signature length: " + signatureLength);
-        if(signatureLength != 0) {
-            byte[] signature = new byte[signatureLength];
-            System.arraycopy(origin, rawLength + RAW_LENGTH_PREFIX, signature, 0, signatureLength);
-            model.setSignature(Base64.encodeToString(signature, Base64.NO_WRAP));
+        SLogger.d(TAG, "soter: signature length: " + codec.getSignatureLength());
+        if (codec.hasSignature()) {
+            model.setSignature(codec.getSignatureBase64());
         }
         return model;
     }
@@ -8,6 +8,7 @@ import com.tencent.soter.core.keystore.KeyPropertiesCompact;
 import com.tencent.soter.core.model.ConstantsSoter;
 import com.tencent.soter.core.model.SLogger;
 import com.tencent.soter.core.model.SReporter;
+import com.tencent.soter.core.model.SoterAuthKeyStatus;
 import com.tencent.soter.core.model.SoterCoreData;
 import com.tencent.soter.core.model.SoterCoreResult;
 import com.tencent.soter.core.model.SoterCoreUtil;
@@ -26,12 +27,12 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.Provider;
-import java.security.Security;
 import java.security.Signature;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -67,6 +68,8 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
             SLogger.i(TAG, "soter: InvocationTargetException");
         } finally {
             isAlreadyCheckedSetUp = true;
+            // the provider may be installed just now
+            SoterProviderInfo.invalidate();
         }
     }
 
@@ -89,17 +92,9 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
             SLogger.w(TAG, "hy: the device has already triggered OOM. mark as not support");
             return false;
         }
-        Provider[] providers = Security.getProviders();
-        if (providers == null) {
-            SLogger.e(TAG, "soter: no provider supported");
-            return false;
-        }
-        for (Provider provider : providers) {
-            String providerName = provider.getName();
-            if (providerName != null && providerName.startsWith(SOTER_PROVIDER_NAME)) {
-                SLogger.i(TAG, "soter: found soter provider");
-                return true;
-            }
+        if (SoterProviderInfo.get() != null) {
+            SLogger.i(TAG, "soter: found soter provider");
+            return true;
         }
         SLogger.i(TAG, "soter: soter provider not found");
         return false;
@@ -110,8 +105,6 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
         SLogger.i(TAG, "soter: start generate ask");
         if (isNativeSupportSoter()) {
             try {
-                KeyStore keyStore = KeyStore.getInstance(providerName);
-                keyStore.load(null);
                 KeyPairGenerator generator = KeyPairGenerator.getInstance(KeyPropertiesCompact.KEY_ALGORITHM_RSA, SOTER_PROVIDER_NAME);
                 AlgorithmParameterSpec spec = KeyGenParameterSpecCompatBuilder.
                         newInstance(SoterCoreData.getInstance().getAskName() +
@@ -120,6 +113,8 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
                 generator.initialize(spec);
                 long currentTicks = SoterCoreUtil.getCurrentTicks();
                 generator.generateKeyPair();
+                SoterKeyStoreCache.invalidate(providerName);
+                SoterSignaturePool.invalidateAll();
                 long cost = SoterCoreUtil.ticksToNowInMs(currentTicks);
                 SLogger.i(TAG, "soter: generate global successfully. cost: %d ms", cost);
                 SoterDelegate.reset();
@@ -143,9 +138,10 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
         SLogger.i(TAG, "soter: start remove app global secure key");
         if (isNativeSupportSoter()) {
             try {
-                KeyStore keyStore = KeyStore.getInstance(providerName);
-                keyStore.load(null);
+                KeyStore keyStore = SoterKeyStoreCache.get(providerName);
                 keyStore.deleteEntry(SoterCoreData.getInstance().getAskName());
+                SoterKeyStoreCache.invalidate(providerName);
+                SoterSignaturePool.invalidateAll();
                 return new SoterCoreResult(ERR_OK);
             } catch (Exception e) {
                 SLogger.e(TAG, "soter: removeAppGlobalSecureKey " + e.toString());
@@ -160,8 +156,7 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
 
     public boolean hasAppGlobalSecureKey() {
         try {
-            KeyStore keyStore = KeyStore.getInstance(providerName);
-            keyStore.load(null);
+            KeyStore keyStore = SoterKeyStoreCache.get(providerName);
             return keyStore.getCertificate(SoterCoreData.getInstance().getAskName()) != null;
         } catch (Exception e) {
             SLogger.e(TAG, "soter: hasAppGlobalSecureKey exception: " + e.toString());
@@ -181,8 +176,7 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
         if (isNativeSupportSoter()) {
             KeyStore keyStore;
             try {
-                keyStore = KeyStore.getInstance(providerName);
-                keyStore.load(null);
+                keyStore = SoterKeyStoreCache.get(providerName);
                 try {
                     Key key = keyStore.getKey(SoterCoreData.getInstance().getAskName(), "from_soter_ui".toCharArray());
                     if (key != null) {
@@ -221,8 +215,6 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
                 if (!hasAppGlobalSecureKey()) {
                     return new SoterCoreResult(ERR_ASK_NOT_EXIST, "app secure key not exist");
                 }
-                KeyStore keyStore = KeyStore.getInstance(providerName);
-                keyStore.load(null);
                 KeyPairGenerator generator = KeyPairGenerator.getInstance(KeyPropertiesCompact.KEY_ALGORITHM_RSA, providerName);
                 try {
                     AlgorithmParameterSpec spec = KeyGenParameterSpecCompatBuilder.newInstance(authKeyName +
@@ -232,6 +224,8 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
                     generator.initialize(spec);
                     long currentTicks = SoterCoreUtil.getCurrentTicks();
                     generator.generateKeyPair();
+                    SoterKeyStoreCache.invalidate(providerName);
+                    SoterSignaturePool.invalidate(authKeyName);
                     long cost = SoterCoreUtil.ticksToNowInMs(currentTicks);
                     SLogger.i(TAG, "soter: generate auth successfully, cost: %d ms", cost);
                     SoterDelegate.reset();
@@ -264,9 +258,10 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
         SLogger.i(TAG, "soter: start remove key: " + authKeyName);
         if (isNativeSupportSoter()) {
             try {
-                KeyStore keyStore = KeyStore.getInstance(providerName);
-                keyStore.load(null);
+                KeyStore keyStore = SoterKeyStoreCache.get(providerName);
                 keyStore.deleteEntry(authKeyName);
+                SoterKeyStoreCache.invalidate(providerName);
+                SoterSignaturePool.invalidate(authKeyName);
                 if (isAutoDeleteASK) {
                     SLogger.i(TAG, "soter: auto delete ask");
                     if (hasAppGlobalSecureKey()) {
@@ -291,8 +286,7 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
             return false;
         }
         try {
-            KeyStore keyStore = KeyStore.getInstance(providerName);
-            keyStore.load(null);
+            KeyStore keyStore = SoterKeyStoreCache.get(providerName);
             return keyStore.getCertificate(authKeyName) != null;
         } catch (Exception e) {
             SLogger.e(TAG, "soter: hasAppGlobalSecureKey exception: " + e.toString());
@@ -301,6 +295,36 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
         return false;
     }
 
+    /**
+     * All the keys are looked up in the same loaded KeyStore
+     */
+    @Override
+    public List<SoterAuthKeyStatus> queryAuthKeys(boolean checkValidity, boolean withModel, String... authKeyNames) {
+        boolean isCheckValidity = checkValidity || withModel;
+        List<SoterAuthKeyStatus> result = new ArrayList<>(authKeyNames.length);
+        KeyStore keyStore = null;
+        try {
+            keyStore = SoterKeyStoreCache.get(providerName);
+        } catch (Exception e) {
+            SLogger.e(TAG, "soter: queryAuthKeys exception: " + e.toString());
+            SReporter.reportError(ERR_ANDROID_BEFORE_TREBLE, "BeforeTreble: queryAuthKeys.", e);
+        }
+        for (String authKeyName : authKeyNames) {
+            boolean exist = false;
+            if (keyStore != null && !SoterCoreUtil.isNullOrNil(authKeyName)) {
+                try {
+                    exist = keyStore.getCertificate(authKeyName) != null;
+                } catch (Exception e) {
+                    SLogger.e(TAG, "soter: queryAuthKeys exception: " + e.toString());
+                }
+            }
+            boolean valid = exist && isCheckValidity && isAuthKeyValid(authKeyName, false);
+            SoterPubKeyModel model = valid && withModel ? getAuthKeyModel(authKeyName) : null;
+            result.add(new SoterAuthKeyStatus(authKeyName, exist, exist && isCheckValidity, valid, model));
+        }
+        return result;
+    }
+
     @Override
     public SoterSessionResult initSigh(String kname, String challenge) {
         return null;
@@ -349,8 +373,7 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
         if (isNativeSupportSoter()) {
             KeyStore keyStore;
             try {
-                keyStore = KeyStore.getInstance(providerName);
-                keyStore.load(null);
+                keyStore = SoterKeyStoreCache.get(providerName);
                 try {
                     Key key = keyStore.getKey(authKeyName, MAGIC_SOTER_PWD.toCharArray());
                     SoterDelegate.reset();
@@ -384,6 +407,31 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
             SLogger.e(TAG, "soter: auth key name is null or nil. abort.");
             return null;
         }
+        Signature prepared = SoterSignaturePool.take(useKeyAlias);
+        if (prepared != null) {
+            SLogger.i(TAG, "soter: use prepared signature of %s", useKeyAlias);
+            return prepared;
+        }
+        return initAuthKeySignatureSafely(useKeyAlias);
+    }
+
+    @Override
+    public boolean prepareAuthInitAndSign(String useKeyAlias) {
+        if (SoterCoreUtil.isNullOrNil(useKeyAlias)) {
+            SLogger.e(TAG, "soter: auth key name is null or nil. abort.");
+            return false;
+        }
+        int generation = SoterSignaturePool.getGeneration(useKeyAlias);
+        long currentTicks = SoterCoreUtil.getCurrentTicks();
+        Signature signature = initAuthKeySignatureSafely(useKeyAlias);
+        if (signature == null) {
+            return false;
+        }
+        SLogger.i(TAG, "soter: prepared signature of %s, cost: %d ms", useKeyAlias, SoterCoreUtil.ticksToNowInMs(currentTicks));
+        return SoterSignaturePool.put(useKeyAlias, signature, generation);
+    }
+
+    private Signature initAuthKeySignatureSafely(String useKeyAlias) {
         if (isNativeSupportSoter()) {
             try {
                 SoterDelegate.reset();
@@ -420,8 +468,7 @@ public class SoterCoreBeforeTreble extends SoterCoreBase implements ConstantsSot
             return null;
         }
         final Signature signature = Signature.getInstance("SHA256withRSA/PSS", "AndroidKeyStoreBCWorkaround");
-        KeyStore soterKeyStore = KeyStore.getInstance(providerName);
-        soterKeyStore.load(null);
+        KeyStore soterKeyStore = SoterKeyStoreCache.get(providerName);
         KeyStore.PrivateKeyEntry entry = (KeyStore.PrivateKeyEntry) soterKeyStore.getEntry(useKeyAlias, null);
         if (entry != null) {
             signature.initSign(entry.getPrivateKey());
@@ -6,23 +6,30 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
 
 import com.tencent.soter.core.model.ISoterExParameters;
 import com.tencent.soter.core.model.SReporter;
 import com.tencent.soter.core.model.SoterExParametersTrebleImpl;
 import com.tencent.soter.soterserver.ISoterService;
+import com.tencent.soter.soterserver.SoterBatchOperation;
+import com.tencent.soter.soterserver.SoterBatchResult;
 import com.tencent.soter.soterserver.SoterExportResult;
 import com.tencent.soter.soterserver.SoterExtraParam;
 import com.tencent.soter.soterserver.SoterSessionResult;
 import com.tencent.soter.soterserver.SoterSignResult;
 import com.tencent.soter.core.model.ConstantsSoter;
 import com.tencent.soter.core.model.SLogger;
+import com.tencent.soter.core.model.SoterAuthKeyStatus;
 import com.tencent.soter.core.model.SoterCoreResult;
+import com.tencent.soter.core.model.SoterCoreUtil;
 import com.tencent.soter.core.model.SoterDelegate;
+import com.tencent.soter.core.model.SoterKeyPreparationStatus;
 import com.tencent.soter.core.model.SoterPubKeyModel;
 import com.tencent.soter.core.model.SoterErrCode;
 
@@ -34,7 +41,10 @@ import java.security.NoSuchProviderException;
 import java.security.Signature;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -43,36 +53,73 @@ import java.util.Arrays;
 public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, SoterErrCode{
 
     public static final String TAG = "Soter.SoterCoreTreble";
-    private static final int DISCONNECT = 0;
-    private static final int CONNECTING = 1;
-    private static final int CONNECTED = 2;
 
     protected static final int DEFAULT_BLOCK_TIME = 3 * 1000; // Default synchronize block time
 
     private Context mContext;
 
+    // canRetry, disconnectCount, noResponseCount and hasBind are guarded by lock, since the reconnect thread and the
+    // ServiceConnection callbacks on the main thread both use them
     private boolean canRetry = true;
 
     private int disconnectCount = 0;
 
-    private static final int DELAY_THRESHOLD = 30;
-     //Fib(3)=2
-    private static final int INITIAL_FIB_VALUE = 3;
-    private int noResponseCount = INITIAL_FIB_VALUE;
+    // when the no response check is delayed more than this, start over on disconnection
+    private static final long DELAY_THRESHOLD_MS = 30 * 1000;
+    // the first no response check waits as long as the third attempt, Fib(3)=2 seconds by default
+    private static final int INITIAL_NO_RESPONSE_ATTEMPT = 3;
+    private int noResponseCount = INITIAL_NO_RESPONSE_ATTEMPT;
 
-    private long lastBindTime = 0L;
+    private volatile long lastBindTime = 0L;
 
     private boolean hasBind = false;
 
     private Handler mMainLooperHandler = new Handler(Looper.getMainLooper());
 
-    protected static ISoterService mSoterService;
+    private static final String RECONNECT_THREAD_NAME = "SoterReconnectHandlerThread";
 
-    private static int connectState = DISCONNECT;
+    private static Handler sReconnectHandler;
 
-    private static boolean isInitializing = false;
+    private static volatile SoterReconnectPolicy reconnectPolicy = SoterReconnectPolicy.fibonacci(1000);
 
-    private static boolean isInitializeSuccessed = false;
+    private static final SoterReconnectMetrics reconnectMetrics = new SoterReconnectMetrics();
+
+    protected static volatile ISoterService mSoterService;
+
+    private static final SoterServiceConnectionState connectionState = new SoterServiceConnectionState();
+
+    static {
+        connectionState.addListener(reconnectMetrics);
+    }
+
+    private static volatile boolean isInitializing = false;
+
+    private static volatile boolean isInitializeSuccessed = false;
+
+    // true from onServiceConnected until the binder is found dead, so the calls in between need no ping
+    private static volatile boolean isBinderHealthy = false;
+
+    private static volatile long healthProbeInterval = 0L;
+
+    private static final AtomicLong pingCount = new AtomicLong();
+
+    private static final AtomicLong skippedPingCount = new AtomicLong();
+
+    /**
+     * The first service version which implements executeBatch
+     */
+    public static final int BATCH_MIN_SERVICE_VERSION = 3;
+
+    // set as the service version once executeBatch fails, so the connection does not use it any more
+    private static final int BATCH_UNSUPPORTED_VERSION = BATCH_MIN_SERVICE_VERSION - 1;
+
+    // the version of the connected service, -1 until it's queried
+    @VisibleForTesting
+    static volatile int serviceVersion = -1;
+
+    private static final AtomicLong batchTransactionCount = new AtomicLong();
+
+    private static final AtomicLong singleTransactionCount = new AtomicLong();
 
     private static final Object lock = new Object();
 
@@ -82,6 +129,8 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
 
     private SoterCoreTrebleServiceListener serviceListener;
 
+    private SoterCoreTrebleInitCallback initCallback;
+
     private IBinder.DeathRecipient mDeathRecipient = new IBinder.DeathRecipient() {
 
         @Override
@@ -93,13 +142,14 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
             }
 
             mSoterService.asBinder().unlinkToDeath(mDeathRecipient, 0);
+            isBinderHealthy = false;
             mSoterService = null;
             if (serviceListener != null) {
                 serviceListener.onServiceBinderDied();
             }
 
             synchronized (lock) {
-                connectState = DISCONNECT;
+                connectionState.moveTo(SoterServiceConnectionState.CONNECTED, SoterServiceConnectionState.DEAD);
                 unbindService();
                 rebindService();
             }
@@ -110,19 +160,28 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
         public void onServiceConnected(
                 ComponentName className, IBinder service) {
             SLogger.i(TAG, "soter: onServiceConnected");
-            synchronized (lock) {
-                connectState = CONNECTED;
-            }
-            // when connected, reset fib and cancel retryFunc.
-            noResponseCount = INITIAL_FIB_VALUE;
-            mMainLooperHandler.removeCallbacks(retryFunc);
             try {
                 service.linkToDeath(mDeathRecipient, 0);
                 mSoterService = ISoterService.Stub.asInterface(service);
+                serviceVersion = -1;
+                isBinderHealthy = true;
+                scheduleHealthProbe();
             } catch (RemoteException e) {
                 SLogger.e(TAG, "soter: Binding deathRecipient is error - RemoteException"+ e.toString());
                 SReporter.reportError(ERR_ANDROID_AIDL_EXCEPTION, "SoterService interface: ISoterService.Stub.asInterface.", e);
             }
+            // publish the state after the service, so a reader seeing CONNECTED sees the service as well
+            synchronized (lock) {
+                // when connected, reset the attempts and cancel retryFunc.
+                noResponseCount = INITIAL_NO_RESPONSE_ATTEMPT;
+                getReconnectHandler().removeCallbacks(retryFunc);
+                int state = connectionState.get();
+                if (state == SoterServiceConnectionState.DISCONNECTED || state == SoterServiceConnectionState.DEAD) {
+                    // connected again by the system without binding
+                    connectionState.moveTo(state, SoterServiceConnectionState.CONNECTING);
+                }
+                connectionState.moveTo(SoterServiceConnectionState.CONNECTING, SoterServiceConnectionState.CONNECTED);
+            }
 
             if (serviceListener != null) {
                 serviceListener.onServiceConnected();
@@ -136,19 +195,16 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
             }
             
             syncJob.countDown();
+            finishInitAsync();
         }
 
         public void onServiceDisconnected(ComponentName className) {
             synchronized (lock) {
                 SLogger.i(TAG, "soter: unBinding is done - Service disconnected");
-                connectState = DISCONNECT;
+                connectionState.moveTo(SoterServiceConnectionState.DISCONNECTED);
+                isBinderHealthy = false;
                 mSoterService = null;
-                if (getFib(noResponseCount) > DELAY_THRESHOLD) {
-                    //when delay time large than DELAY_THRESHOLD second, reset fib value
-                    SLogger.i(TAG, "soter: rest fib, now is delay %dS", getFib(noResponseCount));
-                    noResponseCount = INITIAL_FIB_VALUE;
-                    mMainLooperHandler.removeCallbacks(retryFunc);
-                }
+                resetNoResponseCountIfDelayed();
                 if (serviceListener != null) {
                     serviceListener.onServiceDisconnected();
                 }
@@ -162,42 +218,89 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
         @Override
         public void onBindingDied(ComponentName name) {
             SLogger.i(TAG, "soter: binding died");
-            connectState = DISCONNECT;
-            mSoterService = null;
-            if (getFib(noResponseCount) > DELAY_THRESHOLD) {
-                //when delay time large than DELAY_THRESHOLD second, reset fib value
-                SLogger.i(TAG, "soter: rest fib, now is delay %dS", getFib(noResponseCount));
-                noResponseCount = INITIAL_FIB_VALUE;
-                mMainLooperHandler.removeCallbacks(retryFunc);
+            synchronized (lock) {
+                if (!connectionState.moveTo(SoterServiceConnectionState.CONNECTED, SoterServiceConnectionState.DEAD)) {
+                    connectionState.moveTo(SoterServiceConnectionState.DISCONNECTED);
+                }
+                isBinderHealthy = false;
+                mSoterService = null;
+                resetNoResponseCountIfDelayed();
+                unbindService();
+                rebindService();
             }
-            unbindService();
-            rebindService();
         }
     };
 
+    // called with lock held
     private void rebindService() {
         if (!canRetry) {
             return;
         }
         disconnectCount++;
-        long duration = (SystemClock.elapsedRealtime() - lastBindTime) / 1000;
-        long fib = getFib(disconnectCount);
-        long delay = fib - duration;
-        SLogger.i(TAG, "fib: %s, rebind delay: %sS", fib, delay);
+        long duration = SystemClock.elapsedRealtime() - lastBindTime;
+        long policyDelay = reconnectPolicy.getDelayMs(disconnectCount);
+        long delay = policyDelay - duration;
+        SLogger.i(TAG, "soter: attempt: %d, policy delay: %dms, rebind delay: %dms", disconnectCount, policyDelay, delay);
         if (delay <= 0) {
             bindService();
         } else {
-            mMainLooperHandler.postDelayed(new Runnable() {
+            getReconnectHandler().postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    bindServiceIfNeeded();
+                    synchronized (lock) {
+                        if (canRetry) {
+                            bindServiceIfNeeded();
+                        }
+                    }
                 }
-            }, delay * 1000);
+            }, delay);
+        }
+    }
+
+    // called with lock held
+    private void resetNoResponseCountIfDelayed() {
+        long checkDelay = reconnectPolicy.getDelayMs(noResponseCount);
+        if (checkDelay > DELAY_THRESHOLD_MS) {
+            //when delay time large than DELAY_THRESHOLD_MS, start over
+            SLogger.i(TAG, "soter: reset no response count, now is delay %dms", checkDelay);
+            noResponseCount = INITIAL_NO_RESPONSE_ATTEMPT;
+            getReconnectHandler().removeCallbacks(retryFunc);
         }
     }
 
+    /**
+     * The rebinding and the no response checks run on this thread instead of the main thread
+     */
+    private static synchronized Handler getReconnectHandler() {
+        if (sReconnectHandler == null) {
+            HandlerThread thread = new HandlerThread(RECONNECT_THREAD_NAME);
+            thread.start();
+            sReconnectHandler = new Handler(thread.getLooper());
+        }
+        return sReconnectHandler;
+    }
+
+    /**
+     * Set the delays of rebinding the service when it's disconnected or not responding. It applies to the next attempt.
+     * @param policy The policy, {@link SoterReconnectPolicy#fibonacci(long)} in seconds by default
+     */
+    public static void setReconnectPolicy(SoterReconnectPolicy policy) {
+        if (policy != null) {
+            reconnectPolicy = policy;
+        }
+    }
+
+    /**
+     * @return the bind latency, the attempts per connection and the time spent disconnected
+     */
+    public static SoterReconnectMetrics getReconnectMetrics() {
+        return reconnectMetrics;
+    }
+
     private void resetDisconnectCount() {
-        disconnectCount = 0;
+        synchronized (lock) {
+            disconnectCount = 0;
+        }
     }
 
     @Override
@@ -210,22 +313,75 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
             @Override
             public void run() {
                 bindServiceIfNeeded();
+                if (connectionState.isConnected()) {
+                    // already connected, there'll be no onServiceConnected to wake up the wait
+                    syncJob.countDown();
+                }
                 SLogger.i(TAG, "soter: initSoter binding");
             }
         });
         
         isInitializing = false;
-        if(connectState == CONNECTED){
+        return checkInitResult();
+
+    }
+
+    /**
+     * Start binding the Soter Service without blocking the caller. The callback is called once, when the service is connected
+     * or when it's still not connected after {@link #DEFAULT_BLOCK_TIME}. It's called in the main thread, or directly in the
+     * caller's thread if the service is already connected.
+     * @param context The context
+     * @param callback The callback of the result
+     */
+    public void initSoterAsync(Context context, SoterCoreTrebleInitCallback callback) {
+        mContext = context;
+        SLogger.i(TAG, "soter: initSoterAsync in");
+        synchronized (lock) {
+            isInitializing = true;
+            initCallback = callback;
+        }
+        mMainLooperHandler.postDelayed(initTimeoutFunc, DEFAULT_BLOCK_TIME);
+        bindServiceIfNeeded();
+        if (connectionState.isConnected()) {
+            finishInitAsync();
+        }
+    }
+
+    private Runnable initTimeoutFunc = new Runnable() {
+        @Override
+        public void run() {
+            SLogger.i(TAG, "soter: initSoterAsync timeout");
+            finishInitAsync();
+        }
+    };
+
+    private void finishInitAsync() {
+        SoterCoreTrebleInitCallback callback;
+        boolean isSuccess;
+        synchronized (lock) {
+            if (initCallback == null) {
+                return;
+            }
+            callback = initCallback;
+            initCallback = null;
+            isInitializing = false;
+            isSuccess = checkInitResult();
+        }
+        mMainLooperHandler.removeCallbacks(initTimeoutFunc);
+        callback.onInitFinished(isSuccess);
+    }
+
+    private boolean checkInitResult() {
+        if(connectionState.isConnected()){
             SLogger.i(TAG, "soter: initSoter finish");
             isInitializeSuccessed = true;
             return true;
         } else {
-            connectState = DISCONNECT;
+            connectionState.moveTo(SoterServiceConnectionState.CONNECTING, SoterServiceConnectionState.DISCONNECTED);
             SLogger.e(TAG, "soter: initSoter error");
             SReporter.reportError(ERR_ANDROID_AIDL_RESULT, "bind SoterService fail: DISCONNECT");
             return false;
         }
-
     }
 
     public static boolean isInitializing() {
@@ -234,7 +390,25 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
 
     @Override
     public boolean isTrebleServiceConnected() {
-        return connectState == CONNECTED;
+        return connectionState.isConnected();
+    }
+
+    /**
+     * @return the current state of the Soter Service connection, see {@link SoterServiceConnectionState}
+     */
+    public static int getConnectionState() {
+        return connectionState.get();
+    }
+
+    /**
+     * Listen to the transitions of the Soter Service connection, with the time spent in each state
+     */
+    public static void addConnectionStateListener(SoterServiceConnectionState.StateListener listener) {
+        connectionState.addListener(listener);
+    }
+
+    public static void removeConnectionStateListener(SoterServiceConnectionState.StateListener listener) {
+        connectionState.removeListener(listener);
     }
 
     @Override
@@ -245,8 +419,11 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
 
     @Override
     public void releaseTrebleServiceConnection() {
-        canRetry = false;
-        unbindService();
+        synchronized (lock) {
+            canRetry = false;
+            getReconnectHandler().removeCallbacks(retryFunc);
+            unbindService();
+        }
     }
 
     @Override
@@ -254,11 +431,28 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
         serviceListener = listener;
     }
 
+    /**
+     * Bind the service if it's not connected. The binder is only pinged when its health is unknown. Once connected, it's
+     * considered healthy until the DeathRecipient or ServiceConnection reports otherwise, so no extra IPC is made.
+     */
     public void bindServiceIfNeeded() {
         try {
-            if (connectState != CONNECTED || mSoterService == null || mSoterService.asBinder() == null || !mSoterService.asBinder().isBinderAlive() || !mSoterService.asBinder().pingBinder()) {
+            ISoterService service = mSoterService;
+            IBinder binder = service == null ? null : service.asBinder();
+            if (!connectionState.isConnected()) {
                 SLogger.i(TAG, "soter: bindServiceIfNeeded try to bind");
                 bindService();
+            } else if (binder == null || !binder.isBinderAlive()) {
+                SLogger.i(TAG, "soter: bindServiceIfNeeded binder is dead, try to bind");
+                connectionState.moveTo(SoterServiceConnectionState.CONNECTED, SoterServiceConnectionState.DEAD);
+                bindService();
+            } else if (isBinderHealthy) {
+                skippedPingCount.incrementAndGet();
+                SLogger.d(TAG, "no need rebind");
+            } else if (!pingService(binder)) {
+                SLogger.i(TAG, "soter: bindServiceIfNeeded ping fail, try to bind");
+                connectionState.moveTo(SoterServiceConnectionState.CONNECTED, SoterServiceConnectionState.DEAD);
+                bindService();
             } else {
                 SLogger.i(TAG, "no need rebind");
             }
@@ -266,6 +460,64 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
             SLogger.printErrStackTrace(TAG, e, "soter: bindServiceIfNeeded fail: ");
         }
     }
+
+    private boolean pingService(IBinder binder) {
+        pingCount.incrementAndGet();
+        boolean isAlive = binder.pingBinder();
+        isBinderHealthy = isAlive;
+        return isAlive;
+    }
+
+    /**
+     * Ping the connected service every interval in the background, so a hung service is found without pinging on the calls
+     * @param intervalMs The probe interval, 0 to disable it. Disabled by default
+     */
+    public static void setHealthProbeInterval(long intervalMs) {
+        healthProbeInterval = intervalMs;
+    }
+
+    /**
+     * @return the number of pings made to check the service
+     */
+    public static long getPingCount() {
+        return pingCount.get();
+    }
+
+    /**
+     * @return the number of calls which skipped the ping because the service is known to be healthy
+     */
+    public static long getSkippedPingCount() {
+        return skippedPingCount.get();
+    }
+
+    private void scheduleHealthProbe() {
+        getReconnectHandler().removeCallbacks(healthProbeFunc);
+        if (healthProbeInterval > 0) {
+            getReconnectHandler().postDelayed(healthProbeFunc, healthProbeInterval);
+        }
+    }
+
+    private Runnable healthProbeFunc = new Runnable() {
+        @Override
+        public void run() {
+            ISoterService service = mSoterService;
+            IBinder binder = service == null ? null : service.asBinder();
+            if (!connectionState.isConnected() || binder == null) {
+                return;
+            }
+            if (!binder.isBinderAlive() || !pingService(binder)) {
+                SLogger.w(TAG, "soter: health probe fail, try to bind");
+                synchronized (lock) {
+                    isBinderHealthy = false;
+                    if (connectionState.moveTo(SoterServiceConnectionState.CONNECTED, SoterServiceConnectionState.DEAD)) {
+                        bindService();
+                    }
+                }
+                return;
+            }
+            scheduleHealthProbe();
+        }
+    };
     
     public void bindService() {
         bindService(false);
@@ -280,53 +532,70 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
             SLogger.e(TAG, "soter: bindService context is null ");
             return;
         }
-        connectState = CONNECTING;
+        // under lock, so the state can not be changed to CONNECTED by onServiceConnected between the check and the bind
+        synchronized (lock) {
+            int state = connectionState.get();
+            if (state != SoterServiceConnectionState.CONNECTING
+                    && !connectionState.moveTo(state, SoterServiceConnectionState.CONNECTING)) {
+                // connected meanwhile, or still connected and not found dead
+                SLogger.i(TAG, "soter: bindService skip, state: %s", SoterServiceConnectionState.toString(connectionState.get()));
+                return;
+            }
 
-        if (serviceListener != null) {
-            serviceListener.onStartServiceConnecting();
-        }
-    
-        SLogger.i(TAG, "soter: bindService binding is start ");
-        lastBindTime = SystemClock.elapsedRealtime();
-        hasBind = mContext.bindService(intent, mServiceConnection, Context.BIND_AUTO_CREATE);
+            if (serviceListener != null) {
+                serviceListener.onStartServiceConnecting();
+            }
+
+            SLogger.i(TAG, "soter: bindService binding is start ");
+            lastBindTime = SystemClock.elapsedRealtime();
+            reconnectMetrics.onBindAttempt();
+            hasBind = mContext.bindService(intent, mServiceConnection, Context.BIND_AUTO_CREATE);
 
-        scheduleTimeoutTask(isCycle);
+            scheduleTimeoutTask(isCycle);
+        }
     }
     
     private Runnable retryFunc = new Runnable() {
         @Override
         public void run() {
-            if (!canRetry || !isInitializeSuccessed) {
-                SLogger.i(TAG, "soter: retryFunc stop, canRetry:%b isInitializeSuccessed:%b", canRetry, isInitializeSuccessed);
-                return;
-            }
-    
-            noResponseCount++;
-            if (connectState != CONNECTED) {
-                SLogger.i(TAG, "soter: retryFunc bindservice no response: %d delay: %d", noResponseCount, getFib(noResponseCount));
+            synchronized (lock) {
+                if (!canRetry || !isInitializeSuccessed) {
+                    SLogger.i(TAG, "soter: retryFunc stop, canRetry:%b isInitializeSuccessed:%b", canRetry, isInitializeSuccessed);
+                    return;
+                }
+
+                if (connectionState.get() == SoterServiceConnectionState.CONNECTED) {
+                    SLogger.i(TAG, "soter: retryFunc stop, CONNECTED");
+                    return;
+                }
+                noResponseCount++;
+                SLogger.i(TAG, "soter: retryFunc bindservice no response: %d delay: %dms", noResponseCount, reconnectPolicy.getDelayMs(noResponseCount));
                 bindService(true);
-            } else {
-                SLogger.i(TAG, "soter: retryFunc stop, CONNECTED");
             }
         }
     };
 
+    // called with lock held
     private void scheduleTimeoutTask(boolean isCycle) {
-        final long checkDelay = getFib(noResponseCount);
-        SLogger.i(TAG, "soter: scheduleTimeoutTask isCycle:%b noResponseCount:%d checkDelay:%d ", isCycle, noResponseCount, checkDelay);
-        if (isCycle || noResponseCount <= INITIAL_FIB_VALUE) {
-            mMainLooperHandler.postDelayed(retryFunc, checkDelay * 1000);
+        final long checkDelay = reconnectPolicy.getDelayMs(noResponseCount);
+        SLogger.i(TAG, "soter: scheduleTimeoutTask isCycle:%b noResponseCount:%d checkDelay:%dms ", isCycle, noResponseCount, checkDelay);
+        if (isCycle || noResponseCount <= INITIAL_NO_RESPONSE_ATTEMPT) {
+            getReconnectHandler().postDelayed(retryFunc, checkDelay);
         }
     }
 
     public void unbindService(){
-        if (hasBind) {
-            try {
-                mContext.unbindService(mServiceConnection);
-            } catch (Exception e) {
-                SLogger.printErrStackTrace(TAG, e, "");
-            } finally {
-                hasBind = false;
+        isBinderHealthy = false;
+        getReconnectHandler().removeCallbacks(healthProbeFunc);
+        synchronized (lock) {
+            if (hasBind) {
+                try {
+                    mContext.unbindService(mServiceConnection);
+                } catch (Exception e) {
+                    SLogger.printErrStackTrace(TAG, e, "");
+                } finally {
+                    hasBind = false;
+                }
             }
         }
     }
@@ -656,6 +925,196 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
 
     }
 
+    /**
+     * The keys are queried in one batch, see {@link #executeBatch(List)}. If the validity is queried, the exported model of
+     * each key is both the existence check, the validity check and the returned model, so a key which fails to export is
+     * reported as not existing. Otherwise only the existence is queried.
+     */
+    @Override
+    public List<SoterAuthKeyStatus> queryAuthKeys(boolean checkValidity, boolean withModel, String... authKeyNames) {
+        SLogger.i(TAG, "soter: queryAuthKeys in, count: %d", authKeyNames.length);
+        boolean isCheckValidity = checkValidity || withModel;
+        int count = authKeyNames.length;
+        boolean[] exists = new boolean[count];
+        SoterPubKeyModel[] models = new SoterPubKeyModel[count];
+
+        List<SoterBatchOperation> operations = new ArrayList<>(count);
+        int type = isCheckValidity ? SoterBatchOperation.TYPE_GET_AUTH_KEY : SoterBatchOperation.TYPE_HAS_AUTH_KEY;
+        for (String authKeyName : authKeyNames) {
+            if (!SoterCoreUtil.isNullOrNil(authKeyName)) {
+                operations.add(new SoterBatchOperation(type, authKeyName));
+            }
+        }
+        List<SoterBatchResult> results = operations.isEmpty() ? null : executeBatch(operations);
+        if (results != null) {
+            for (int i = 0, j = 0; i < count; i++) {
+                if (SoterCoreUtil.isNullOrNil(authKeyNames[i])) {
+                    continue;
+                }
+                SoterBatchResult result = results.get(j++);
+                if (isCheckValidity) {
+                    // a missing key fails to export as well
+                    models[i] = retrieveModel(result);
+                    exists[i] = result.resultCode == ERR_OK && models[i] != null;
+                } else {
+                    exists[i] = result.hasKey;
+                }
+            }
+        }
+
+        List<SoterAuthKeyStatus> statuses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statuses.add(new SoterAuthKeyStatus(authKeyNames[i], exists[i], exists[i] && isCheckValidity, models[i] != null,
+                    withModel ? models[i] : null));
+        }
+        return statuses;
+    }
+
+    /**
+     * Both keys are queried in one batch, see {@link #executeBatch(List)}, instead of the separate calls of
+     * {@link #isAppGlobalSecureKeyValid()}, {@link #hasAuthKey(String)} and {@link #getAuthKeyModel(String)}.
+     * The exported models are the validity checks, as in {@link #isAppGlobalSecureKeyValid()}.
+     */
+    @Override
+    public SoterKeyPreparationStatus queryKeyPreparation(String authKeyName, boolean withModel) {
+        SLogger.i(TAG, "soter: queryKeyPreparation in");
+        boolean isQueryAuthKey = !SoterCoreUtil.isNullOrNil(authKeyName);
+        List<SoterBatchOperation> operations = new ArrayList<>(4);
+        operations.add(new SoterBatchOperation(SoterBatchOperation.TYPE_HAS_ASK_ALREADY, null));
+        operations.add(new SoterBatchOperation(SoterBatchOperation.TYPE_GET_APP_SECURE_KEY, null));
+        if (isQueryAuthKey) {
+            operations.add(new SoterBatchOperation(SoterBatchOperation.TYPE_HAS_AUTH_KEY, authKeyName));
+            operations.add(new SoterBatchOperation(SoterBatchOperation.TYPE_GET_AUTH_KEY, authKeyName));
+        }
+        List<SoterBatchResult> results = executeBatch(operations);
+
+        boolean isAskValid = false;
+        boolean exist = false;
+        SoterPubKeyModel model = null;
+        if (results != null) {
+            isAskValid = results.get(0).hasKey && retrieveModel(results.get(1)) != null;
+            if (isQueryAuthKey) {
+                exist = results.get(2).hasKey;
+                model = exist ? retrieveModel(results.get(3)) : null;
+            }
+        }
+        return new SoterKeyPreparationStatus(isAskValid,
+                new SoterAuthKeyStatus(authKeyName, exist, exist, model != null, withModel ? model : null));
+    }
+
+    private static SoterPubKeyModel retrieveModel(SoterBatchResult result) {
+        byte[] rawBytes = result.exportData;
+        return rawBytes != null && rawBytes.length > 0 ? retrieveJsonFromExportedData(rawBytes) : null;
+    }
+
+    /**
+     * Execute the operations in one transaction if the service supports it, see {@link #BATCH_MIN_SERVICE_VERSION}.
+     * Otherwise they are executed one by one, but the service is still checked and bound only once.
+     * @param operations The operations to execute in order
+     * @return The results in the same order as the operations, or null if the service is not available or fails
+     */
+    public List<SoterBatchResult> executeBatch(List<SoterBatchOperation> operations) {
+        SLogger.i(TAG, "soter: executeBatch in, count: %d", operations.size());
+
+        if(!isNativeSupportSoter()){
+            return null;
+        }
+
+        if(mContext == null) {
+            SLogger.w(TAG, "soter: context is null");
+            return null;
+        }
+
+        bindServiceIfNeeded();
+
+        if(checkIfServiceNull()) {
+            SLogger.w(TAG, "soter: soter service not found");
+            return null;
+        }
+
+        try {
+            return executeBatch(mSoterService, operations);
+        } catch (Exception e) {
+            SLogger.printErrStackTrace(TAG, e, "soter: executeBatch fail: ");
+            SReporter.reportError(ERR_ANDROID_AIDL_EXCEPTION, "SoterService aidl: executeBatch.", e);
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    static List<SoterBatchResult> executeBatch(ISoterService service, List<SoterBatchOperation> operations) throws RemoteException {
+        if (isBatchSupported(service)) {
+            List<SoterBatchResult> results = service.executeBatch(uid, operations);
+            batchTransactionCount.incrementAndGet();
+            if (results != null && results.size() == operations.size()) {
+                return results;
+            }
+            // e.g. a service of the version without executeBatch, do not batch again on this connection
+            serviceVersion = BATCH_UNSUPPORTED_VERSION;
+            SLogger.e(TAG, "soter: executeBatch result count mismatch, execute one by one");
+            SReporter.reportError(ERR_ANDROID_AIDL_RESULT, "SoterService aidl: executeBatch. Result count mismatch");
+        }
+        List<SoterBatchResult> results = new ArrayList<>(operations.size());
+        for (SoterBatchOperation operation : operations) {
+            results.add(executeOperation(service, operation));
+        }
+        singleTransactionCount.addAndGet(operations.size());
+        return results;
+    }
+
+    private static boolean isBatchSupported(ISoterService service) throws RemoteException {
+        int version = serviceVersion;
+        if (version < 0) {
+            version = service.getVersion();
+            serviceVersion = version;
+            SLogger.i(TAG, "soter: service version: %d", version);
+        }
+        return version >= BATCH_MIN_SERVICE_VERSION;
+    }
+
+    private static SoterBatchResult executeOperation(ISoterService service, SoterBatchOperation operation) throws RemoteException {
+        SoterBatchResult result = new SoterBatchResult(operation.type);
+        SoterExportResult exportResult = null;
+        switch (operation.type) {
+            case SoterBatchOperation.TYPE_GET_APP_SECURE_KEY:
+                exportResult = service.getAppSecureKey(uid);
+                break;
+            case SoterBatchOperation.TYPE_HAS_ASK_ALREADY:
+                result.hasKey = service.hasAskAlready(uid);
+                break;
+            case SoterBatchOperation.TYPE_GET_AUTH_KEY:
+                exportResult = service.getAuthKey(uid, operation.kname);
+                break;
+            case SoterBatchOperation.TYPE_HAS_AUTH_KEY:
+                result.hasKey = service.hasAuthKey(uid, operation.kname);
+                break;
+            default:
+                SLogger.e(TAG, "soter: unknown batch operation: %d", operation.type);
+                result.resultCode = ERR_PARAMERROR;
+                break;
+        }
+        if (exportResult != null) {
+            result.resultCode = exportResult.resultCode;
+            result.exportData = exportResult.exportData;
+            result.exportDataLength = exportResult.exportDataLength;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of executeBatch transactions made
+     */
+    public static long getBatchTransactionCount() {
+        return batchTransactionCount.get();
+    }
+
+    /**
+     * @return the number of transactions made for the operations executed one by one in {@link #executeBatch(List)}
+     */
+    public static long getSingleTransactionCount() {
+        return singleTransactionCount.get();
+    }
+
     @Override
     public SoterSessionResult initSigh(String kname, String challenge) {
 
@@ -789,22 +1248,4 @@ public class SoterCoreTreble extends SoterCoreBase implements ConstantsSoter, So
         }
     }
 
-    private static long getFib(long n){
-        if(n < 0){
-            return -1;
-        }else if(n == 0){
-            return 0;
-        }else if (n == 1 || n == 2){
-            return 1;
-        }else{
-            long c = 0, a = 1, b = 1;
-            for(int i = 3; i <= n; i++){
-                c = a + b;
-                a = b;
-                b = c;
-            }
-            return c;
-        }
-    }
-
 }
@@ -0,0 +1,12 @@
+package com.tencent.soter.core.sotercore;
+
+/**
+ * The callback of initializing the Treble core without blocking, see {@link SoterCoreTreble#initSoterAsync(android.content.Context, SoterCoreTrebleInitCallback)}
+ */
+public interface SoterCoreTrebleInitCallback {
+
+    /**
+     * @param isSuccess true if the Soter Service is connected
+     */
+    void onInitFinished(boolean isSuccess);
+}
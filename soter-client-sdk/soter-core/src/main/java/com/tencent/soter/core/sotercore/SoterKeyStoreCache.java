@@ -0,0 +1,103 @@
+package com.tencent.soter.core.sotercore;
+
+import com.tencent.soter.core.model.SLogger;
+
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The loaded {@link KeyStore} of each provider, shared by the whole process. A KeyStore is loaded when it's first used, and
+ * reloaded on the next use after {@link #invalidate(String)}, which is called whenever a key is generated or deleted.
+ * A KeyStore loaded across an invalidate is not cached, since it may miss the change.
+ */
+public class SoterKeyStoreCache {
+    private static final String TAG = "Soter.SoterKeyStoreCache";
+
+    private static final ConcurrentHashMap<String, KeyStore> sKeyStores = new ConcurrentHashMap<>();
+    private static final Object sLoadLock = new Object();
+
+    // increased by every invalidate of the provider, and by every invalidateAll
+    private static final ConcurrentHashMap<String, AtomicInteger> sGenerations = new ConcurrentHashMap<>();
+    private static final AtomicInteger sAllGeneration = new AtomicInteger();
+
+    private static final AtomicLong sRequestCount = new AtomicLong();
+    private static final AtomicLong sLoadCount = new AtomicLong();
+
+    /**
+     * Get the loaded KeyStore of the provider, load it if it's not loaded yet
+     */
+    public static KeyStore get(String providerName) throws KeyStoreException, IOException, NoSuchAlgorithmException,
+            CertificateException {
+        sRequestCount.incrementAndGet();
+        KeyStore keyStore = sKeyStores.get(providerName);
+        if (keyStore != null) {
+            return keyStore;
+        }
+        synchronized (sLoadLock) {
+            keyStore = sKeyStores.get(providerName);
+            if (keyStore == null) {
+                AtomicInteger generation = getGeneration(providerName);
+                int expectGeneration = generation.get();
+                int expectAllGeneration = sAllGeneration.get();
+                long currentTicks = System.nanoTime();
+                keyStore = KeyStore.getInstance(providerName);
+                keyStore.load(null);
+                sLoadCount.incrementAndGet();
+                SLogger.d(TAG, "soter: keystore of %s loaded, cost: %d ms", providerName, (System.nanoTime() - currentTicks) / 1000000);
+                sKeyStores.put(providerName, keyStore);
+                // invalidate increases the generation before it removes the KeyStore, so checking after the put either sees
+                // the change, or the removal comes after the put
+                if (generation.get() != expectGeneration || sAllGeneration.get() != expectAllGeneration) {
+                    SLogger.d(TAG, "soter: keystore of %s invalidated while loading, not cached", providerName);
+                    sKeyStores.remove(providerName, keyStore);
+                }
+            }
+            return keyStore;
+        }
+    }
+
+    /**
+     * Drop the loaded KeyStore of the provider, so that the next {@link #get(String)} loads it again
+     */
+    public static void invalidate(String providerName) {
+        getGeneration(providerName).incrementAndGet();
+        sKeyStores.remove(providerName);
+    }
+
+    public static void invalidateAll() {
+        sAllGeneration.incrementAndGet();
+        sKeyStores.clear();
+    }
+
+    private static AtomicInteger getGeneration(String providerName) {
+        AtomicInteger generation = sGenerations.get(providerName);
+        if (generation == null) {
+            AtomicInteger newGeneration = new AtomicInteger();
+            generation = sGenerations.putIfAbsent(providerName, newGeneration);
+            if (generation == null) {
+                generation = newGeneration;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * @return the number of {@link #get(String)} calls
+     */
+    public static long getRequestCount() {
+        return sRequestCount.get();
+    }
+
+    /**
+     * @return the number of times any KeyStore is loaded in this process
+     */
+    public static long getLoadCount() {
+        return sLoadCount.get();
+    }
+}
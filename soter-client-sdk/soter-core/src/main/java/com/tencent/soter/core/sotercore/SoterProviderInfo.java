@@ -0,0 +1,125 @@
+package com.tencent.soter.core.sotercore;
+
+import com.tencent.soter.core.model.ConstantsSoter;
+import com.tencent.soter.core.model.SLogger;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SOTER provider found in {@link Security#getProviders()}, and the {@link SoterCoreBase} implementation for it.
+ * The provider is discovered once and cached. The cache is dropped when the cached provider is no longer registered under
+ * its name, or when {@link SoterCoreBeforeTreble#setUp()} installs the provider. Call {@link #invalidate()} if the providers
+ * are changed in other ways.
+ */
+public class SoterProviderInfo {
+    private static final String TAG = "Soter.SoterProviderInfo";
+
+    // the cached result when there's no SOTER provider
+    private static final SoterProviderInfo NOT_FOUND = new SoterProviderInfo(null, null);
+
+    private static final Object sLock = new Object();
+    private static volatile SoterProviderInfo sCached = null;
+    private static final AtomicLong sDiscoverCount = new AtomicLong();
+
+    private final String name;
+    private final Provider provider;
+    private final boolean certCapable;
+
+    private SoterProviderInfo(String name, Provider provider) {
+        this.name = name;
+        this.provider = provider;
+        // providers named like SoterKeyStore.xxx export the keys as certificate chains
+        this.certCapable = name != null && name.split("\\.").length > 1;
+    }
+
+    /**
+     * @return the SOTER provider, or null if there's none
+     */
+    public static SoterProviderInfo get() {
+        SoterProviderInfo cached = sCached;
+        if (cached != null && cached.isStillRegistered()) {
+            return cached == NOT_FOUND ? null : cached;
+        }
+        synchronized (sLock) {
+            cached = sCached;
+            if (cached == null || !cached.isStillRegistered()) {
+                cached = discover();
+                sCached = cached;
+            }
+            return cached == NOT_FOUND ? null : cached;
+        }
+    }
+
+    /**
+     * Drop the cached provider, the next {@link #get()} discovers it again
+     */
+    public static void invalidate() {
+        sCached = null;
+    }
+
+    /**
+     * @return the number of times the providers are scanned
+     */
+    public static long getDiscoverCount() {
+        return sDiscoverCount.get();
+    }
+
+    private static SoterProviderInfo discover() {
+        sDiscoverCount.incrementAndGet();
+        Provider[] providers = Security.getProviders();
+        if (providers == null) {
+            SLogger.e(TAG, "soter: no provider supported");
+            return NOT_FOUND;
+        }
+        for (Provider provider : providers) {
+            String providerName = provider.getName();
+            if (providerName != null && providerName.startsWith(ConstantsSoter.SOTER_PROVIDER_NAME)) {
+                SLogger.i(TAG, "soter: found soter provider: %s", providerName);
+                return new SoterProviderInfo(providerName, provider);
+            }
+        }
+        SLogger.i(TAG, "soter: soter provider not found");
+        return NOT_FOUND;
+    }
+
+    private boolean isStillRegistered() {
+        return this == NOT_FOUND || Security.getProvider(name) == provider;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return true if the keys are exported as certificate chains, which is handled by {@link CertSoterCore}
+     */
+    public boolean isCertCapable() {
+        return certCapable;
+    }
+
+    public Class<? extends SoterCoreBase> getSoterCoreClass() {
+        return certCapable ? CertSoterCore.class : SoterCoreBeforeTreble.class;
+    }
+
+    /**
+     * @return a new {@link SoterCoreBase} implementation for this provider
+     */
+    public SoterCoreBase newSoterCore() {
+        return certCapable ? new CertSoterCore(name) : new SoterCoreBeforeTreble(name);
+    }
+
+    @Override
+    public String toString() {
+        return "SoterProviderInfo{" +
+                "name='" + name + '\'' +
+                ", certCapable=" + certCapable +
+                ", soterCoreClass=" + getSoterCoreClass().getSimpleName() +
+                '}';
+    }
+}
@@ -0,0 +1,97 @@
+package com.tencent.soter.core.sotercore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of binding the Soter Service, collected from the transitions of {@link SoterServiceConnectionState}
+ * and the bind attempts, to tune the {@link SoterReconnectPolicy}.
+ */
+public class SoterReconnectMetrics implements SoterServiceConnectionState.StateListener {
+
+    private final AtomicLong bindAttemptCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicLong totalBindLatencyMs = new AtomicLong();
+    private final AtomicLong maxBindLatencyMs = new AtomicLong();
+    private final AtomicLong totalDisconnectedMs = new AtomicLong();
+    private final AtomicLong attemptsOfCurrentConnection = new AtomicLong();
+    private final AtomicLong maxAttemptsPerConnection = new AtomicLong();
+
+    void onBindAttempt() {
+        bindAttemptCount.incrementAndGet();
+        attemptsOfCurrentConnection.incrementAndGet();
+    }
+
+    @Override
+    public void onStateChanged(int fromState, int toState, long durationMs) {
+        if (fromState != SoterServiceConnectionState.CONNECTED) {
+            totalDisconnectedMs.addAndGet(durationMs);
+        }
+        if (fromState == SoterServiceConnectionState.CONNECTING && toState == SoterServiceConnectionState.CONNECTED) {
+            totalBindLatencyMs.addAndGet(durationMs);
+            updateMax(maxBindLatencyMs, durationMs);
+        }
+        if (toState == SoterServiceConnectionState.CONNECTED) {
+            connectionCount.incrementAndGet();
+            updateMax(maxAttemptsPerConnection, attemptsOfCurrentConnection.getAndSet(0));
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getBindAttemptCount() {
+        return bindAttemptCount.get();
+    }
+
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * @return the average time from binding to connected, in milliseconds
+     */
+    public long getAverageBindLatencyMs() {
+        long count = connectionCount.get();
+        return count == 0 ? 0 : totalBindLatencyMs.get() / count;
+    }
+
+    public long getMaxBindLatencyMs() {
+        return maxBindLatencyMs.get();
+    }
+
+    /**
+     * @return the average number of bind attempts for each connection
+     */
+    public float getAverageAttemptsPerConnection() {
+        long count = connectionCount.get();
+        return count == 0 ? 0 : (float) bindAttemptCount.get() / count;
+    }
+
+    public long getMaxAttemptsPerConnection() {
+        return maxAttemptsPerConnection.get();
+    }
+
+    /**
+     * @return the total time spent without a connected service, in milliseconds, not counting the current state
+     */
+    public long getTotalDisconnectedMs() {
+        return totalDisconnectedMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SoterReconnectMetrics{" +
+                "bindAttemptCount=" + getBindAttemptCount() +
+                ", connectionCount=" + getConnectionCount() +
+                ", averageBindLatencyMs=" + getAverageBindLatencyMs() +
+                ", maxBindLatencyMs=" + getMaxBindLatencyMs() +
+                ", averageAttemptsPerConnection=" + getAverageAttemptsPerConnection() +
+                ", maxAttemptsPerConnection=" + getMaxAttemptsPerConnection() +
+                ", totalDisconnectedMs=" + getTotalDisconnectedMs() +
+                '}';
+    }
+}
@@ -0,0 +1,83 @@
+package com.tencent.soter.core.sotercore;
+
+import java.util.Random;
+
+/**
+ * How long to wait before binding the Soter Service again. The attempt counts the consecutive attempts without a
+ * connection and starts from 1. The default is {@link #fibonacci(long)} in seconds, which is the original behaviour.
+ */
+public abstract class SoterReconnectPolicy {
+
+    /**
+     * @param attempt The number of consecutive attempts without a connection, starting from 1
+     * @return The delay in milliseconds before the attempt
+     */
+    public abstract long getDelayMs(int attempt);
+
+    /**
+     * Delays of the fibonacci sequence: 1, 1, 2, 3, 5, 8... units
+     */
+    public static SoterReconnectPolicy fibonacci(final long unitMs) {
+        return new SoterReconnectPolicy() {
+            @Override
+            public long getDelayMs(int attempt) {
+                if (attempt <= 0) {
+                    return 0;
+                }
+                long a = 0;
+                long b = 1;
+                // stop before it overflows, the delay is far beyond any sane cap by then anyway
+                for (int i = 1; i < attempt && b < Long.MAX_VALUE / 2 / Math.max(unitMs, 1); i++) {
+                    long c = a + b;
+                    a = b;
+                    b = c;
+                }
+                return b * unitMs;
+            }
+        };
+    }
+
+    /**
+     * Delays doubling from the base: 1, 2, 4, 8... times the base
+     */
+    public static SoterReconnectPolicy exponential(final long baseMs) {
+        return new SoterReconnectPolicy() {
+            @Override
+            public long getDelayMs(int attempt) {
+                if (attempt <= 0) {
+                    return 0;
+                }
+                int shift = Math.min(attempt - 1, 30);
+                return baseMs << shift;
+            }
+        };
+    }
+
+    /**
+     * Limit the delays of the policy to the max delay
+     */
+    public static SoterReconnectPolicy capped(final SoterReconnectPolicy policy, final long maxDelayMs) {
+        return new SoterReconnectPolicy() {
+            @Override
+            public long getDelayMs(int attempt) {
+                return Math.min(policy.getDelayMs(attempt), maxDelayMs);
+            }
+        };
+    }
+
+    /**
+     * Spread the delays of the policy randomly by the ratio, so a large number of devices losing the service at the same time
+     * do not bind again at the same time
+     * @param ratio Between 0 and 1. A delay d becomes a random value between d * (1 - ratio) and d * (1 + ratio)
+     */
+    public static SoterReconnectPolicy jittered(final SoterReconnectPolicy policy, final float ratio) {
+        final Random random = new Random();
+        return new SoterReconnectPolicy() {
+            @Override
+            public long getDelayMs(int attempt) {
+                long delayMs = policy.getDelayMs(attempt);
+                return (long) (delayMs * (1 - ratio + 2 * ratio * random.nextFloat()));
+            }
+        };
+    }
+}
@@ -0,0 +1,136 @@
+package com.tencent.soter.core.sotercore;
+
+import android.os.SystemClock;
+
+import com.tencent.soter.core.model.SLogger;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The connection state of the Soter Service. Reads are lock free, and every transition is a single atomic step which is
+ * reported to the listeners with the time spent in the previous state.
+ * <p>
+ * The allowed transitions are:
+ * <ul>
+ * <li>DISCONNECTED or DEAD -> CONNECTING when binding starts</li>
+ * <li>CONNECTING -> CONNECTED when the service is connected, or DISCONNECTED when binding fails or times out</li>
+ * <li>CONNECTED -> DEAD when the binder dies or stops responding, or DISCONNECTED when the service is disconnected</li>
+ * </ul>
+ * Any other transition is refused, so a connected service must be found dead or disconnected before binding again.
+ */
+public class SoterServiceConnectionState {
+    private static final String TAG = "Soter.SoterServiceConnectionState";
+
+    public static final int DISCONNECTED = 0;
+    public static final int CONNECTING = 1;
+    public static final int CONNECTED = 2;
+    public static final int DEAD = 3;
+
+    public interface StateListener {
+        /**
+         * Called in the thread making the transition
+         * @param fromState The previous state
+         * @param toState The new state
+         * @param durationMs How long the previous state lasted
+         */
+        void onStateChanged(int fromState, int toState, long durationMs);
+    }
+
+    private final AtomicInteger state = new AtomicInteger(DISCONNECTED);
+    private volatile long stateEnterTime = SystemClock.elapsedRealtime();
+    private final CopyOnWriteArrayList<StateListener> listeners = new CopyOnWriteArrayList<>();
+
+    public int get() {
+        return state.get();
+    }
+
+    public boolean isConnected() {
+        return state.get() == CONNECTED;
+    }
+
+    /**
+     * Move to the state from whatever the current state is, if the transition is allowed
+     * @return true if the state is changed
+     */
+    public boolean moveTo(int toState) {
+        while (true) {
+            int fromState = state.get();
+            if (fromState == toState) {
+                return false;
+            }
+            if (!isAllowed(fromState, toState)) {
+                SLogger.w(TAG, "soter: ignore transition from %s to %s", toString(fromState), toString(toState));
+                return false;
+            }
+            if (state.compareAndSet(fromState, toState)) {
+                onTransition(fromState, toState);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Move to the state only if the current state is the expected one
+     * @return true if the state is changed
+     */
+    public boolean moveTo(int expectState, int toState) {
+        if (expectState == toState || !isAllowed(expectState, toState)) {
+            return false;
+        }
+        if (state.compareAndSet(expectState, toState)) {
+            onTransition(expectState, toState);
+            return true;
+        }
+        return false;
+    }
+
+    public void addListener(StateListener listener) {
+        if (listener != null) {
+            listeners.addIfAbsent(listener);
+        }
+    }
+
+    public void removeListener(StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void onTransition(int fromState, int toState) {
+        long now = SystemClock.elapsedRealtime();
+        long durationMs = now - stateEnterTime;
+        stateEnterTime = now;
+        SLogger.i(TAG, "soter: %s -> %s after %d ms", toString(fromState), toString(toState), durationMs);
+        for (StateListener listener : listeners) {
+            listener.onStateChanged(fromState, toState, durationMs);
+        }
+    }
+
+    private static boolean isAllowed(int fromState, int toState) {
+        switch (fromState) {
+            case DISCONNECTED:
+            case DEAD:
+                return toState == CONNECTING;
+            case CONNECTING:
+                return toState == CONNECTED || toState == DISCONNECTED;
+            case CONNECTED:
+                return toState == DEAD || toState == DISCONNECTED;
+            default:
+                return false;
+        }
+    }
+
+    public static String toString(int state) {
+        switch (state) {
+            case DISCONNECTED:
+                return "DISCONNECTED";
+            case CONNECTING:
+                return "CONNECTING";
+            case CONNECTED:
+                return "CONNECTED";
+            case DEAD:
+                return "DEAD";
+            default:
+                return String.valueOf(state);
+        }
+    }
+}
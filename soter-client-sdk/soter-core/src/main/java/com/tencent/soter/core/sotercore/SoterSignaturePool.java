@@ -0,0 +1,158 @@
+package com.tencent.soter.core.sotercore;
+
+import android.os.SystemClock;
+
+import com.tencent.soter.core.model.SLogger;
+
+import java.security.Signature;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The initialized {@link Signature} objects prepared ahead of authentication, one for each auth key. A prepared signature is
+ * handed to the next {@link SoterCoreBase#getAuthInitAndSign(String)} of the same key only once, and it's dropped when it
+ * expires or when the key is generated or deleted. The expired ones are swept by {@link #evictExpired()}, which every
+ * {@link #put(String, Signature, int)} calls as well, so a key prepared but never authenticated does not keep its signature.
+ * <p>
+ * Every invalidation of a key bumps the generation of the key. A signature initialized before an invalidation is refused by
+ * {@link #put(String, Signature, int)}, so a preparation racing with a key change never leaves a stale signature behind.
+ */
+public class SoterSignaturePool {
+    private static final String TAG = "Soter.SoterSignaturePool";
+
+    public static final long DEFAULT_EXPIRE_MILLIS = 30 * 1000;
+
+    private static final ConcurrentHashMap<String, PreparedSignature> sSignatures = new ConcurrentHashMap<>();
+    // increased by every invalidate of the key, and by every invalidateAll
+    private static final ConcurrentHashMap<String, AtomicInteger> sGenerations = new ConcurrentHashMap<>();
+    private static volatile long sExpireMillis = DEFAULT_EXPIRE_MILLIS;
+
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+
+    private static class PreparedSignature {
+        final Signature signature;
+        final long expireTime;
+
+        PreparedSignature(Signature signature, long expireTime) {
+            this.signature = signature;
+            this.expireTime = expireTime;
+        }
+    }
+
+    /**
+     * Set how long a prepared signature can be used after it's prepared. It only applies to the signatures prepared afterwards
+     */
+    public static void setExpireMillis(long expireMillis) {
+        sExpireMillis = expireMillis;
+    }
+
+    public static long getExpireMillis() {
+        return sExpireMillis;
+    }
+
+    /**
+     * @return the generation of the key to pass to {@link #put(String, Signature, int)}, read it before initializing the signature
+     */
+    public static int getGeneration(String keyAlias) {
+        return getGenerationOf(keyAlias).get();
+    }
+
+    private static AtomicInteger getGenerationOf(String keyAlias) {
+        AtomicInteger generation = sGenerations.get(keyAlias);
+        if (generation == null) {
+            AtomicInteger newGeneration = new AtomicInteger();
+            generation = sGenerations.putIfAbsent(keyAlias, newGeneration);
+            if (generation == null) {
+                generation = newGeneration;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Keep the initialized signature of the key for the next authentication, replacing the previous one
+     * @param keyAlias The auth key alias
+     * @param signature The initialized signature
+     * @param generation The generation read before the signature was initialized
+     * @return true if the signature is kept, false if the key has changed since the generation
+     */
+    public static boolean put(String keyAlias, Signature signature, int generation) {
+        evictExpired();
+        PreparedSignature prepared = new PreparedSignature(signature, SystemClock.elapsedRealtime() + sExpireMillis);
+        sSignatures.put(keyAlias, prepared);
+        if (getGenerationOf(keyAlias).get() != generation) {
+            // the key changed while the signature was being initialized
+            sSignatures.remove(keyAlias, prepared);
+            SLogger.w(TAG, "soter: keys changed when preparing %s, drop it", keyAlias);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Take the prepared signature of the key. It's removed from the pool, so it's used by one authentication only
+     * @return the prepared signature, or null if there's none or it has expired
+     */
+    public static Signature take(String keyAlias) {
+        PreparedSignature prepared = sSignatures.remove(keyAlias);
+        if (prepared == null) {
+            sMissCount.incrementAndGet();
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() >= prepared.expireTime) {
+            SLogger.i(TAG, "soter: prepared signature of %s expired", keyAlias);
+            sMissCount.incrementAndGet();
+            return null;
+        }
+        sHitCount.incrementAndGet();
+        return prepared.signature;
+    }
+
+    /**
+     * Drop the prepared signatures which have expired
+     */
+    public static void evictExpired() {
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<String, PreparedSignature> entry : sSignatures.entrySet()) {
+            if (now >= entry.getValue().expireTime && sSignatures.remove(entry.getKey(), entry.getValue())) {
+                SLogger.i(TAG, "soter: prepared signature of %s expired, drop it", entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drop the prepared signature of the key, called when the key is generated or deleted
+     */
+    public static void invalidate(String keyAlias) {
+        getGenerationOf(keyAlias).incrementAndGet();
+        sSignatures.remove(keyAlias);
+    }
+
+    /**
+     * Drop all the prepared signatures
+     */
+    public static void invalidateAll() {
+        // a generation added after the iteration is read after this invalidation, so it needs no increase
+        for (AtomicInteger generation : sGenerations.values()) {
+            generation.incrementAndGet();
+        }
+        sSignatures.clear();
+    }
+
+    /**
+     * @return the number of {@link #take(String)} calls which got a prepared signature
+     */
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * @return the number of {@link #take(String)} calls which found no usable prepared signature
+     */
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+}
@@ -10,13 +10,15 @@ import java.util.concurrent.TimeUnit;
 
 public class SyncJob {
     private static final String TAG = "Soter.SyncJob";
-    private CountDownLatch countDownWait = null;
+    // volatile so a countDown from the binder or main thread always sees the latch of the current wait
+    private volatile CountDownLatch countDownWait = null;
 
     private static Handler mMainLooperHandler = null;
 
     public void countDown(){
-        if (countDownWait != null) {
-            countDownWait.countDown();
+        CountDownLatch latch = countDownWait;
+        if (latch != null) {
+            latch.countDown();
         }
     }
 
@@ -25,16 +27,15 @@ public class SyncJob {
         if (r == null) {
             return;
         }
-        countDownWait = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        countDownWait = latch;
 
         r.run();
 
-        if (countDownWait != null) {
-            try {
-                countDownWait.await(blockTime, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                SLogger.printErrStackTrace(TAG, e, "");
-            }
+        try {
+            latch.await(blockTime, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            SLogger.printErrStackTrace(TAG, e, "");
         }
     }
 
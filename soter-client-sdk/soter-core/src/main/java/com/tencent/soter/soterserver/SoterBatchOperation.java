@@ -0,0 +1,55 @@
+package com.tencent.soter.soterserver;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * One operation of ISoterService.executeBatch. Each type matches the ISoterService method of the same name. Only the
+ * queries are batched, the values of the types are shared with the service so they must not change
+ */
+public class SoterBatchOperation implements Parcelable {
+    public static final int TYPE_GET_APP_SECURE_KEY = 2;
+    public static final int TYPE_HAS_ASK_ALREADY = 3;
+    public static final int TYPE_GET_AUTH_KEY = 6;
+    public static final int TYPE_HAS_AUTH_KEY = 8;
+
+    public int type;
+    public String kname;
+
+    public SoterBatchOperation(){
+        super();
+    }
+
+    public SoterBatchOperation(int type, String kname) {
+        this.type = type;
+        this.kname = kname;
+    }
+
+    protected SoterBatchOperation(Parcel in) {
+        type = in.readInt();
+        kname = in.readString();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(type);
+        dest.writeString(kname);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<SoterBatchOperation> CREATOR = new Creator<SoterBatchOperation>() {
+        @Override
+        public SoterBatchOperation createFromParcel(Parcel in) {
+            return new SoterBatchOperation(in);
+        }
+
+        @Override
+        public SoterBatchOperation[] newArray(int size) {
+            return new SoterBatchOperation[size];
+        }
+    };
+}
@@ -0,0 +1,58 @@
+package com.tencent.soter.soterserver;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * The result of one {@link SoterBatchOperation}. The boolean results of the has operations are in hasKey, and the
+ * results of the get operations are in resultCode and exportData.
+ */
+public class SoterBatchResult implements Parcelable {
+    public int type;
+    public int resultCode;
+    public boolean hasKey;
+    public byte[] exportData;
+    public int exportDataLength;
+
+    public SoterBatchResult(){
+        super();
+    }
+
+    public SoterBatchResult(int type) {
+        this.type = type;
+    }
+
+    protected SoterBatchResult(Parcel in) {
+        type = in.readInt();
+        resultCode = in.readInt();
+        hasKey = in.readInt() != 0;
+        exportData = in.createByteArray();
+        exportDataLength = in.readInt();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(type);
+        dest.writeInt(resultCode);
+        dest.writeInt(hasKey ? 1 : 0);
+        dest.writeByteArray(exportData);
+        dest.writeInt(exportDataLength);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<SoterBatchResult> CREATOR = new Creator<SoterBatchResult>() {
+        @Override
+        public SoterBatchResult createFromParcel(Parcel in) {
+            return new SoterBatchResult(in);
+        }
+
+        @Override
+        public SoterBatchResult[] newArray(int size) {
+            return new SoterBatchResult[size];
+        }
+    };
+}
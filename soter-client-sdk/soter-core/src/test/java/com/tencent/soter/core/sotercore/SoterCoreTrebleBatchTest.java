@@ -0,0 +1,235 @@
+package com.tencent.soter.core.sotercore;
+
+import android.os.IBinder;
+
+import com.tencent.soter.soterserver.ISoterService;
+import com.tencent.soter.soterserver.SoterBatchOperation;
+import com.tencent.soter.soterserver.SoterBatchResult;
+import com.tencent.soter.soterserver.SoterDeviceResult;
+import com.tencent.soter.soterserver.SoterExportResult;
+import com.tencent.soter.soterserver.SoterExtraParam;
+import com.tencent.soter.soterserver.SoterSessionResult;
+import com.tencent.soter.soterserver.SoterSignResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The transactions made by SoterCoreTreble.executeBatch against a fake service
+ */
+public class SoterCoreTrebleBatchTest {
+
+    private static final List<SoterBatchOperation> PREPARATION_OPERATIONS = Arrays.asList(
+            new SoterBatchOperation(SoterBatchOperation.TYPE_HAS_ASK_ALREADY, null),
+            new SoterBatchOperation(SoterBatchOperation.TYPE_GET_APP_SECURE_KEY, null),
+            new SoterBatchOperation(SoterBatchOperation.TYPE_HAS_AUTH_KEY, "key"),
+            new SoterBatchOperation(SoterBatchOperation.TYPE_GET_AUTH_KEY, "key"));
+
+    private long batchTransactionCount;
+    private long singleTransactionCount;
+
+    @Before
+    public void setUp() {
+        SoterCoreTreble.serviceVersion = -1;
+        batchTransactionCount = SoterCoreTreble.getBatchTransactionCount();
+        singleTransactionCount = SoterCoreTreble.getSingleTransactionCount();
+    }
+
+    @Test
+    public void executesInOneTransactionWhenBatchSupported() throws Exception {
+        FakeSoterService service = new FakeSoterService(SoterCoreTreble.BATCH_MIN_SERVICE_VERSION, false);
+
+        List<SoterBatchResult> results = SoterCoreTreble.executeBatch(service, PREPARATION_OPERATIONS);
+
+        assertEquals(PREPARATION_OPERATIONS.size(), results.size());
+        assertEquals(1, service.batchCallCount);
+        assertEquals(0, service.singleCallCount);
+        assertEquals(1, SoterCoreTreble.getBatchTransactionCount() - batchTransactionCount);
+        assertEquals(0, SoterCoreTreble.getSingleTransactionCount() - singleTransactionCount);
+    }
+
+    @Test
+    public void queriesVersionOnlyOnce() throws Exception {
+        FakeSoterService service = new FakeSoterService(SoterCoreTreble.BATCH_MIN_SERVICE_VERSION, false);
+
+        SoterCoreTreble.executeBatch(service, PREPARATION_OPERATIONS);
+        SoterCoreTreble.executeBatch(service, PREPARATION_OPERATIONS);
+
+        assertEquals(1, service.versionCallCount);
+        assertEquals(2, service.batchCallCount);
+        assertEquals(2, SoterCoreTreble.getBatchTransactionCount() - batchTransactionCount);
+    }
+
+    @Test
+    public void executesOneByOneWhenBatchNotSupported() throws Exception {
+        FakeSoterService service = new FakeSoterService(SoterCoreTreble.BATCH_MIN_SERVICE_VERSION - 1, false);
+
+        List<SoterBatchResult> results = SoterCoreTreble.executeBatch(service, PREPARATION_OPERATIONS);
+
+        assertEquals(PREPARATION_OPERATIONS.size(), results.size());
+        assertTrue(results.get(0).hasKey);
+        assertEquals(0, service.batchCallCount);
+        assertEquals(PREPARATION_OPERATIONS.size(), service.singleCallCount);
+        assertEquals(0, SoterCoreTreble.getBatchTransactionCount() - batchTransactionCount);
+        assertEquals(PREPARATION_OPERATIONS.size(), SoterCoreTreble.getSingleTransactionCount() - singleTransactionCount);
+    }
+
+    @Test
+    public void stopsBatchingAfterResultCountMismatch() throws Exception {
+        FakeSoterService service = new FakeSoterService(SoterCoreTreble.BATCH_MIN_SERVICE_VERSION, true);
+
+        List<SoterBatchResult> results = SoterCoreTreble.executeBatch(service, PREPARATION_OPERATIONS);
+        assertEquals(PREPARATION_OPERATIONS.size(), results.size());
+        assertEquals(1, service.batchCallCount);
+        assertEquals(PREPARATION_OPERATIONS.size(), service.singleCallCount);
+
+        SoterCoreTreble.executeBatch(service, PREPARATION_OPERATIONS);
+        assertEquals(1, service.batchCallCount);
+        assertEquals(2 * PREPARATION_OPERATIONS.size(), service.singleCallCount);
+        assertEquals(1, SoterCoreTreble.getBatchTransactionCount() - batchTransactionCount);
+        assertEquals(2 * PREPARATION_OPERATIONS.size(), SoterCoreTreble.getSingleTransactionCount() - singleTransactionCount);
+    }
+
+    @Test
+    public void reportsMissingKeyInResult() throws Exception {
+        FakeSoterService service = new FakeSoterService(SoterCoreTreble.BATCH_MIN_SERVICE_VERSION - 1, false);
+
+        List<SoterBatchResult> results = SoterCoreTreble.executeBatch(service, Arrays.asList(
+                new SoterBatchOperation(SoterBatchOperation.TYPE_GET_AUTH_KEY, "missing")));
+
+        assertTrue(results.get(0).resultCode != 0);
+        assertEquals(0, results.get(0).exportDataLength);
+    }
+
+    /**
+     * Counts the transactions. A batch executes the operations locally, like the service does, without counting them
+     */
+    private static class FakeSoterService implements ISoterService {
+        private final int version;
+        private final boolean dropsBatchResults;
+        int versionCallCount;
+        int batchCallCount;
+        int singleCallCount;
+
+        FakeSoterService(int version, boolean dropsBatchResults) {
+            this.version = version;
+            this.dropsBatchResults = dropsBatchResults;
+        }
+
+        private static SoterExportResult exportKey(String kname) {
+            SoterExportResult result = new SoterExportResult();
+            if ("missing".equals(kname)) {
+                result.resultCode = -1;
+                return result;
+            }
+            result.exportData = new byte[]{1};
+            result.exportDataLength = 1;
+            return result;
+        }
+
+        @Override
+        public int generateAppSecureKey(int uid) {
+            singleCallCount++;
+            return 0;
+        }
+
+        @Override
+        public SoterExportResult getAppSecureKey(int uid) {
+            singleCallCount++;
+            return exportKey(null);
+        }
+
+        @Override
+        public boolean hasAskAlready(int uid) {
+            singleCallCount++;
+            return true;
+        }
+
+        @Override
+        public int generateAuthKey(int uid, String kname) {
+            singleCallCount++;
+            return 0;
+        }
+
+        @Override
+        public int removeAuthKey(int uid, String kname) {
+            singleCallCount++;
+            return 0;
+        }
+
+        @Override
+        public SoterExportResult getAuthKey(int uid, String kname) {
+            singleCallCount++;
+            return exportKey(kname);
+        }
+
+        @Override
+        public int removeAllAuthKey(int uid) {
+            singleCallCount++;
+            return 0;
+        }
+
+        @Override
+        public boolean hasAuthKey(int uid, String kname) {
+            singleCallCount++;
+            return !"missing".equals(kname);
+        }
+
+        @Override
+        public SoterSessionResult initSigh(int uid, String kname, String challenge) {
+            singleCallCount++;
+            return null;
+        }
+
+        @Override
+        public SoterSignResult finishSign(long signSession) {
+            singleCallCount++;
+            return null;
+        }
+
+        @Override
+        public SoterDeviceResult getDeviceId() {
+            singleCallCount++;
+            return null;
+        }
+
+        @Override
+        public int getVersion() {
+            versionCallCount++;
+            return version;
+        }
+
+        @Override
+        public SoterExtraParam getExtraParam(String key) {
+            singleCallCount++;
+            return null;
+        }
+
+        @Override
+        public List<SoterBatchResult> executeBatch(int uid, List<SoterBatchOperation> operations) {
+            batchCallCount++;
+            List<SoterBatchResult> results = new ArrayList<>(operations.size());
+            if (dropsBatchResults) {
+                return results;
+            }
+            for (SoterBatchOperation operation : operations) {
+                SoterBatchResult result = new SoterBatchResult(operation.type);
+                result.hasKey = true;
+                results.add(result);
+            }
+            return results;
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.tencent.soter.core.model.ConstantsSoter;
 import com.tencent.soter.core.model.SLogger;
 import com.tencent.soter.core.model.SoterCoreResult;
 import com.tencent.soter.core.model.SoterCoreUtil;
+import com.tencent.soter.core.sotercore.SoterSignaturePool;
 import com.tencent.soter.wrapper.wrap_callback.SoterProcessAuthenticationResult;
 import com.tencent.soter.wrapper.wrap_callback.SoterProcessCallback;
 import com.tencent.soter.wrapper.wrap_callback.SoterProcessKeyPreparationResult;
@@ -141,6 +142,41 @@ public class SoterWrapperApi implements SoterProcessErrCode {
         }
     }
 
+    /**
+     * Prepare the authentication of a business scene ahead of time, e.g. when the payment page is opened, so that the next
+     * {@link SoterWrapperApi#requestAuthorizeAndSign(SoterProcessCallback, AuthenticationParam)} of the scene starts the
+     * biometric prompt sooner. The preparation runs in the SOTER worker thread. It's optional and only takes effect on
+     * devices before Treble, see {@link SoterCore#prepareAuthInitAndSign(String)}.
+     * @param scene Business scene. Should be initialized in {@link SoterWrapperApi#init(Context, SoterProcessCallback, InitializeParam)}
+     */
+    public static void prepareAuthentication(final int scene) {
+        if (!isInitialized()) {
+            SLogger.w(TAG, "soter: not initialized yet");
+            return;
+        }
+        final String authKeyName = SoterDataCenter.getInstance().getAuthKeyNames().get(scene);
+        if (SoterCoreUtil.isNullOrNil(authKeyName)) {
+            SLogger.w(TAG, "soter: scene not registered in init. please make sure");
+            return;
+        }
+        SoterTaskThread.getInstance().postToWorker(new Runnable() {
+            @Override
+            public void run() {
+                boolean isPrepared = SoterCore.prepareAuthInitAndSign(authKeyName);
+                SLogger.i(TAG, "soter: prepare authentication of scene %d: %b", scene, isPrepared);
+                if (isPrepared) {
+                    // drop the signature when it expires in case the scene is never authenticated
+                    SoterTaskThread.getInstance().postToWorkerDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            SoterSignaturePool.evictExpired();
+                        }
+                    }, SoterSignaturePool.getExpireMillis());
+                }
+            }
+        });
+    }
+
     /**
      * Check whether the device supports SOTER. The only difference between {@link SoterCore#isNativeSupportSoter()} and this method is that it also judge the result combining with server check result.
      * @return True if the device supports SOTER, false otherwise
@@ -225,6 +261,7 @@ public class SoterWrapperApi implements SoterProcessErrCode {
     public static void release() {
         tryStopAllSoterTask();
         SoterDataCenter.getInstance().clearStatus();
+        SoterSignaturePool.invalidateAll();
     }
 
 }
@@ -30,6 +30,7 @@ public class InitializeParam {
     private ISoterReporter mSoterReporter = null;
     private String customAppSecureKeyName = "";
     private HandlerThread customTaskHandlerThread;
+    private boolean isAsyncTrebleInit = false;
 
     private InitializeParam() {
         //
@@ -63,6 +64,10 @@ public class InitializeParam {
         return customTaskHandlerThread;
     }
 
+    public boolean isAsyncTrebleInit() {
+        return isAsyncTrebleInit;
+    }
+
     public static class InitializeParamBuilder {
         private InitializeParam mInitializeParam = new InitializeParam();
 
@@ -136,6 +141,18 @@ public class InitializeParam {
             return this;
         }
 
+        /**
+         * Set whether to connect the Soter Service on Treble devices without blocking. If true, the initialization does not block
+         * the task thread for up to 3 seconds while the service is connecting, and the SOTER tasks added in the meantime wait
+         * for the connection instead.
+         * @param isAsyncTrebleInit true to connect without blocking. False by default
+         * @return the builder
+         */
+        public InitializeParamBuilder setAsyncTrebleInit(boolean isAsyncTrebleInit) {
+            mInitializeParam.isAsyncTrebleInit = isAsyncTrebleInit;
+            return this;
+        }
+
         public InitializeParam build() {
             return mInitializeParam;
         }
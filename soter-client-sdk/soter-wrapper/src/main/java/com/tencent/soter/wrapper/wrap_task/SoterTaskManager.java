@@ -11,10 +11,15 @@ package com.tencent.soter.wrapper.wrap_task;
 
 import android.util.SparseArray;
 
+import com.tencent.soter.core.SoterCore;
 import com.tencent.soter.core.model.SLogger;
+import com.tencent.soter.core.sotercore.SoterCoreTrebleInitCallback;
 import com.tencent.soter.wrapper.wrap_callback.SoterProcessResultBase;
 import com.tencent.soter.wrapper.wrap_core.SoterProcessErrCode;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by henryye on 2017/4/20.
  * The manager to manage all the soter tasks
@@ -28,6 +33,9 @@ public class SoterTaskManager implements SoterProcessErrCode {
 
     private final Object mTaskPoolLock = new Object();
 
+    // tasks waiting for the soter service connection -> the result instance to report the cancellation
+    private final HashMap<BaseSoterTask, SoterProcessResultBase> mParkedTasks = new HashMap<>();
+
     private SoterTaskManager() {
         sTaskPool = new SparseArray<>(5);
     }
@@ -50,7 +58,7 @@ public class SoterTaskManager implements SoterProcessErrCode {
      * @param task The task to add and
      * @return true if added and executed successfully
      */
-    public boolean addToTask(final BaseSoterTask task, SoterProcessResultBase instanceOnError) {
+    public boolean addToTask(final BaseSoterTask task, final SoterProcessResultBase instanceOnError) {
         if(task == null) {
             SLogger.e(TAG, "soter: task is null. should not happen");
             return false;
@@ -59,6 +67,32 @@ public class SoterTaskManager implements SoterProcessErrCode {
             SLogger.e(TAG, "soter: instanceOnError is null. should not happen");
             return false;
         }
+        synchronized (mTaskPoolLock) {
+            mParkedTasks.put(task, instanceOnError);
+        }
+        if (SoterCore.runAfterTrebleInit(new SoterCoreTrebleInitCallback() {
+            @Override
+            public void onInitFinished(boolean isSuccess) {
+                synchronized (mTaskPoolLock) {
+                    if (mParkedTasks.remove(task) == null) {
+                        SLogger.i(TAG, "soter: %s is cancelled while waiting", task.getClass().getSimpleName());
+                        return;
+                    }
+                }
+                SoterTaskThread.getInstance().postToWorker(new Runnable() {
+                    @Override
+                    public void run() {
+                        addToTask(task, instanceOnError);
+                    }
+                });
+            }
+        })) {
+            SLogger.i(TAG, "soter: %s waits for the soter service connection", task.getClass().getSimpleName());
+            return true;
+        }
+        synchronized (mTaskPoolLock) {
+            mParkedTasks.remove(task);
+        }
         boolean isEat = task.preExecute();
         if(!isEat) {
             int taskClassIndex = task.hashCode();
@@ -104,8 +138,11 @@ public class SoterTaskManager implements SoterProcessErrCode {
     }
 
     public void cancelAllTask() {
+        HashMap<BaseSoterTask, SoterProcessResultBase> parkedTasks;
         synchronized (mTaskPoolLock) {
             SLogger.i(TAG, "soter: request cancel all");
+            parkedTasks = new HashMap<>(mParkedTasks);
+            mParkedTasks.clear();
             if(sTaskPool.size() != 0) {
                 for(int i = 0; i < sTaskPool.size(); i++) {
                     final int key = sTaskPool.keyAt(i);
@@ -125,6 +162,13 @@ public class SoterTaskManager implements SoterProcessErrCode {
             }
             sTaskPool.clear();
         }
+        // the waiting tasks have not started, so just tell the callers they are cancelled
+        for (Map.Entry<BaseSoterTask, SoterProcessResultBase> entry : parkedTasks.entrySet()) {
+            SoterProcessResultBase result = entry.getValue();
+            result.setErrCode(ERR_USER_CANCELLED);
+            result.setErrMsg("cancelled before the soter service is connected");
+            entry.getKey().callback(result);
+        }
     }
 
 
@@ -24,6 +24,7 @@ import com.tencent.soter.core.model.ConstantsSoter;
 import com.tencent.soter.core.model.ISoterLogger;
 import com.tencent.soter.core.model.SLogger;
 import com.tencent.soter.core.model.SReporter;
+import com.tencent.soter.core.model.SoterAuthKeyStatus;
 import com.tencent.soter.core.model.SoterCoreData;
 import com.tencent.soter.core.model.SoterCoreUtil;
 import com.tencent.soter.core.model.SoterDelegate;
@@ -37,6 +38,8 @@ import com.tencent.soter.wrapper.wrap_net.ISoterNetCallback;
 import com.tencent.soter.wrapper.wrap_net.IWrapGetSupportNet;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by henryye on 2017/4/21.
@@ -58,6 +61,7 @@ public class TaskInit extends BaseSoterTask {
     private static final int MAX_CUSTOM_KEY_LEN = 24;
 
     private boolean isNativeSupport = false;
+    private Context context;
 
     private IWrapGetSupportNet getSupportNetWrapper;
     private String distinguishSalt = "";
@@ -127,9 +131,14 @@ public class TaskInit extends BaseSoterTask {
         // set implement to wrapper
         SoterDelegate.setImplement(wrapperDelegate);
         SoterCore.tryToInitSoterBeforeTreble();
-        SoterCore.tryToInitSoterTreble(context);
+        if (param.isAsyncTrebleInit()) {
+            // the task waits in SoterTaskManager until the service is connected
+            SoterCore.tryToInitSoterTrebleAsync(context, null);
+        } else {
+            SoterCore.tryToInitSoterTreble(context);
+        }
         SoterCore.setUp();
-        isNativeSupport = SoterCore.isNativeSupportSoter() && (SoterCore.isSupportFingerprint(context) || SoterCore.isSupportBiometric(context, ConstantsSoter.FACEID_AUTH));
+        this.context = context;
         this.getSupportNetWrapper = param.getGetSupportNetWrapper();
         this.scenes = param.getScenes();
         this.distinguishSalt = param.getDistinguishSalt();
@@ -207,14 +216,25 @@ public class TaskInit extends BaseSoterTask {
                     SoterCore.removeAuthKey(keyName, false);
                 }
             } else {
+                // query the existence of all the invalid keys at once
+                List<String> invalidKeyNames = new ArrayList<>();
                 for (int scene : scenes) {
                     String keyName = SoterDataCenter.getInstance().getAuthKeyNames().get(scene, "");
                     if(!SoterCoreUtil.isNullOrNil(keyName)) {
                         int keyStatus = preferences.getInt(keyName, ConstantsSoterProcess.KeyStatus.KEY_STATUS_NORMAL);
                         SLogger.d(TAG, "soter: %s status: %d", keyName, keyStatus);
-                        if(isKeyStatusInvalid(keyStatus) && SoterCore.hasAuthKey(keyName)) {
-                            SLogger.i(TAG, "remove invalid ask: %s", keyName);
-                            SoterCore.removeAuthKey(keyName, false);
+                        if(isKeyStatusInvalid(keyStatus)) {
+                            invalidKeyNames.add(keyName);
+                        }
+                    }
+                }
+                if (!invalidKeyNames.isEmpty()) {
+                    List<SoterAuthKeyStatus> keyStatuses = SoterCore.queryAuthKeys(false, false,
+                            invalidKeyNames.toArray(new String[invalidKeyNames.size()]));
+                    for (SoterAuthKeyStatus keyStatus : keyStatuses) {
+                        if (keyStatus.isExist()) {
+                            SLogger.i(TAG, "remove invalid ask: %s", keyStatus.getAuthKeyName());
+                            SoterCore.removeAuthKey(keyStatus.getAuthKeyName(), false);
                         }
                     }
                 }
@@ -237,6 +257,7 @@ public class TaskInit extends BaseSoterTask {
 
     @Override
     void execute() {
+        isNativeSupport = SoterCore.isNativeSupportSoter() && (SoterCore.isSupportFingerprint(context) || SoterCore.isSupportBiometric(context, ConstantsSoter.FACEID_AUTH));
         if(isNativeSupport) {
             // if do not provide net wrapper, regard it as no need to send request to backend to check support
             if(getSupportNetWrapper == null) {
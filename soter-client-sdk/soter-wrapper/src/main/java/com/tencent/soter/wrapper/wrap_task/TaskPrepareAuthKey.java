@@ -14,8 +14,10 @@ import android.support.annotation.NonNull;
 
 import com.tencent.soter.core.SoterCore;
 import com.tencent.soter.core.model.SLogger;
+import com.tencent.soter.core.model.SoterAuthKeyStatus;
 import com.tencent.soter.core.model.SoterCoreUtil;
 import com.tencent.soter.core.model.SoterErrCode;
+import com.tencent.soter.core.model.SoterKeyPreparationStatus;
 import com.tencent.soter.core.model.SoterPubKeyModel;
 import com.tencent.soter.wrapper.SoterWrapperApi;
 import com.tencent.soter.wrapper.wrap_callback.SoterProcessKeyPreparationResult;
@@ -70,25 +72,33 @@ public class TaskPrepareAuthKey extends BaseSoterPrepareKeyTask implements Soter
             callback(new SoterProcessKeyPreparationResult(ERR_AUTH_KEY_NOT_IN_MAP, String.format("auth scene %d not initialized in map", mScene)));
             return true;
         }
-        boolean isASKValid = SoterCore.isAppGlobalSecureKeyValid();
+        // query both keys at once, the model is only needed if the key is kept
+        SoterKeyPreparationStatus keyStatus = SoterCore.queryKeyPreparation(mAuthKeyName, !mIsAutoDeleteWhenAlreadyGenerated);
+        boolean isASKValid = keyStatus.isAskValid();
+        SoterAuthKeyStatus authKeyStatus = keyStatus.getAuthKeyStatus();
+        boolean hasAuthKey = authKeyStatus.isExist();
         // if there's no ask but has auth key, you should delete the auth key as well
-        if(!isASKValid && SoterCore.hasAuthKey(mAuthKeyName)) {
+        if(!isASKValid && hasAuthKey) {
             SLogger.w(TAG, "soter: no ask but has auth key. delete the auth key as well");
             SoterCore.removeAuthKey(mAuthKeyName, false);
+            hasAuthKey = false;
         }
         if(!isASKValid && !mIsAutoPrepareASKWhenNotFound) {
             SLogger.w(TAG, "soter: has not generate app secure key yet and not require to generate it");
             callback(new SoterProcessKeyPreparationResult(SoterErrCode.ERR_ASK_NOT_EXIST));
             return true;
         }
-        if(SoterCore.hasAuthKey(mAuthKeyName) && !SoterCore.isAuthKeyValid(mAuthKeyName, true)) {
-            SLogger.w(TAG, "soter: already has auth key but not valid. delete it already and re-generate");
-            return false;
-        }
-        if(SoterCore.hasAuthKey(mAuthKeyName) && !mIsAutoDeleteWhenAlreadyGenerated) {
-            SLogger.i(TAG, "soter: already has key. do not need generate again");
-            callback(new SoterProcessKeyPreparationResult(ERR_OK, SoterCore.getAuthKeyModel(mAuthKeyName)));
-            return true;
+        if(hasAuthKey) {
+            if(!authKeyStatus.isValid()) {
+                SoterCore.removeAuthKey(mAuthKeyName, false);
+                SLogger.w(TAG, "soter: already has auth key but not valid. delete it already and re-generate");
+                return false;
+            }
+            if(!mIsAutoDeleteWhenAlreadyGenerated) {
+                SLogger.i(TAG, "soter: already has key. do not need generate again");
+                callback(new SoterProcessKeyPreparationResult(ERR_OK, authKeyStatus.getModel()));
+                return true;
+            }
         }
         if(mAuthKeyNetWrapper == null) {
             SLogger.w(TAG, "soter: it is strongly recommended that you provide a net wrapper to check and upload AuthKey validation from server! Please make sure you upload it later");
@@ -22,6 +22,18 @@ public class SoterPubKeyModel {
         this.uid = uid;
     }
 
+    public long getCounter() {
+        return counter;
+    }
+
+    public String getCpu_id() {
+        return cpu_id;
+    }
+
+    public int getUid() {
+        return uid;
+    }
+
     @Override
     public String toString() {
         return "SoterPubKeyModel{" +
@@ -1,7 +1,13 @@
 package com.tencent.soter.serverdemo;
 
+import com.tencent.soter.serverdemo.service.ChallengeService;
+import com.tencent.soter.serverdemo.service.CounterRegistry;
+import com.tencent.soter.serverdemo.utils.BatchVerifier;
+import com.tencent.soter.serverdemo.utils.CertChainValidator;
 import com.tencent.soter.serverdemo.utils.FileUtil;
 import com.tencent.soter.serverdemo.utils.RSAUtil;
+import com.tencent.soter.serverdemo.utils.SoterJsonExtractor;
+import com.tencent.soter.serverdemo.utils.SoterJsonFields;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -11,13 +17,30 @@ import java.security.Security;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 
 public class SoterServerDemo {
+
+	private static final String DEMO_AUTH_KEY_NAME = "sample_auth_key_name";
+
+	private static final long CHALLENGE_TTL = 5 * 60 * 1000L;
+
+	private static final int MAX_OUTSTANDING_CHALLENGES = 100000;
+
 	public static void main(String[] args) {
 		
 		Security.addProvider(new BouncyCastleProvider());
 
+		// issue a challenge for the client to sign, it can only be consumed once
+		ChallengeService challengeService = new ChallengeService(CHALLENGE_TTL, MAX_OUTSTANDING_CHALLENGES);
+		String challenge = challengeService.issue();
+		System.out.println("Issued challenge: " + challenge + ", consumed: " + challengeService.consume(challenge)
+				+ ", consumed again: " + challengeService.consume(challenge));
+
 		// verify auth key
 		RSAPublicKey askPublicKey = RSAUtil.loadPublicKeyFromFile("java/example/ask.pem");
 		byte[] authKeyJson = FileUtil.readByteArrayFromFile("java/example/auth_key_json.txt");
@@ -37,18 +60,51 @@ public class SoterServerDemo {
 		boolean verifyFinal = RSAUtil.verify(publicKey, data, signature);
 		if (verifyFinal) {
 			System.out.println("Verify Final signature OK");
+			SoterJsonFields finalFields = SoterJsonExtractor.extract(data);
+			System.out.println("Final json fields: " + finalFields);
+
+			// reject replayed signatures by the counter
+			CounterRegistry counterRegistry = new CounterRegistry();
+			boolean firstAccepted = counterRegistry.accept(finalFields.getUid(), finalFields.getCpuId(), DEMO_AUTH_KEY_NAME, finalFields.getCounter());
+			boolean replayAccepted = counterRegistry.accept(finalFields.getUid(), finalFields.getCpuId(), DEMO_AUTH_KEY_NAME, finalFields.getCounter());
+			System.out.println("Counter accepted: " + firstAccepted + ", replay accepted: " + replayAccepted);
 		}
 		else {
 			System.err.println("Verify Final signature failed");
 		}
 
+		// verify signatures in batch
+		try {
+			List<BatchVerifier.Item> items = new ArrayList<>();
+			items.add(new BatchVerifier.Item(askPublicKey, authKeyJson, authKeySignature));
+			items.add(new BatchVerifier.Item(publicKey, data, signature));
+			boolean[] results = new BatchVerifier().verify(items);
+			System.out.println("Batch verify results: " + Arrays.toString(results));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+
 		// load ask cert from certificate chain(e.g. huawei)
 		try {
 			String certs = FileUtil.readFromFile("java/example/hw_ask_cert_json.txt");
 			JSONObject jsonObject = new JSONObject(certs);
 			JSONArray certsJson = jsonObject.optJSONArray("certs");
 			CertificateFactory factory = CertificateFactory.getInstance("X.509");
-			X509Certificate askCertificate = (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(certsJson.getString(0).getBytes()));
+			X509Certificate[] certChain = new X509Certificate[certsJson.length()];
+			for (int i = 0; i < certChain.length; i++) {
+				certChain[i] = (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(certsJson.getString(i).getBytes()));
+			}
+			X509Certificate askCertificate = certChain[0];
+
+			// validate the certificate chain. The root in the chain is trusted here only for the demo, a real server should
+			// configure the vendor root certificates as trust anchors instead of trusting the uploaded ones
+			CertChainValidator chainValidator = new CertChainValidator(
+					Collections.singletonList(certChain[certChain.length - 1]), 24 * 60 * 60 * 1000L);
+			if (chainValidator.validate(certChain)) {
+				System.out.println("Validate ask certificate chain OK");
+			} else {
+				System.err.println("Validate ask certificate chain failed");
+			}
 			SoterPubKeyModel soterPubKeyModel = new SoterPubKeyModel();
 			int saltLen = RSAUtil.extractAttestationSequence(askCertificate, soterPubKeyModel);
 			System.out.println("cert ask encode: " + Base64.getEncoder().encodeToString(askCertificate.getPublicKey().getEncoded()));
@@ -77,6 +133,7 @@ public class SoterServerDemo {
 			boolean hwVerifyFinal = RSAUtil.verify(hwAuthKey, hwData, hwSign, saltLen);
 			if (hwVerifyFinal) {
 				System.out.println("hwVerifyFinal Final signature OK");
+				System.out.println("hw final json fields: " + SoterJsonExtractor.extract(hwData));
 			} else {
 				System.err.println("hwVerifyFinal Final signature failed");
 			}
@@ -0,0 +1,401 @@
+package com.tencent.soter.serverdemo.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tencent.soter.serverdemo.SoterPubKeyModel;
+import com.tencent.soter.serverdemo.service.ChallengeService;
+import com.tencent.soter.serverdemo.service.CounterRegistry;
+import com.tencent.soter.serverdemo.utils.CertChainValidator;
+import com.tencent.soter.serverdemo.utils.PSSVerifier;
+import com.tencent.soter.serverdemo.utils.RSAUtil;
+import com.tencent.soter.serverdemo.utils.SoterJsonExtractor;
+import com.tencent.soter.serverdemo.utils.SoterJsonFields;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * SoterHttpServer is a small embedded verification service with the endpoints used by the client sample (see RemoteBase and its
+ * subclasses in client-sample): support check, challenge, ASK upload, auth key upload and signature verification.
+ * Requests are handled on a bounded worker pool. Request bodies are parsed straight from the request stream, and the result is
+ * returned as {"data": {...}} just as the client sample expects.
+ * <p>
+ * The keys are kept in memory only. An ASK with a certificate chain is accepted only if the {@link CertChainValidator} validates
+ * the chain, and an ASK without one only if its signature is verified with the key set by {@link #setAskVerifyKey}, e.g. the
+ * key of the device vendor. Without them the ASK is rejected. A real server should persist the keys.
+ * @author alvinluo
+ */
+public class SoterHttpServer {
+
+	public static final String BASE_PATH = "/soter";
+
+	public static final String PATH_GET_IS_SUPPORT = BASE_PATH + "/get_is_support";
+	public static final String PATH_GET_CHALLENGE = BASE_PATH + "/get_challenge";
+	public static final String PATH_UPLOAD_ASK_KEY = BASE_PATH + "/upload_ask_key";
+	public static final String PATH_UPLOAD_PAY_AUTH_KEY = BASE_PATH + "/upload_pay_auth_key";
+	public static final String PATH_OPEN_FINGERPRINT_PAY = BASE_PATH + "/open_fingerprintpay";
+	public static final String PATH_AUTHENTICATION = BASE_PATH + "/authentication";
+
+	private static final String KEY_DATA = "data";
+	private static final String KEY_IS_SUPPORT = "is_support";
+	private static final String KEY_CHALLENGE = "challengeStr";
+	private static final String KEY_KEY_JSON = "keyJson";
+	private static final String KEY_SIGNATURE = "signature";
+	private static final String KEY_SIGNATURE_JSON = "signatureJson";
+	private static final String KEY_CERTS = "certs";
+	private static final String KEY_ASK_RESULT = "is_verified";
+	private static final String KEY_AUTH_KEY_RESULT = "result";
+	private static final String KEY_OPEN_RESULT = "isOpenSuccess";
+	private static final String KEY_AUTHENTICATION_RESULT = "is_authenticated";
+
+	private static final String PAY_AUTH_KEY_NAME = "pay";
+
+	private static final int MAX_BODY_SIZE = 64 * 1024;
+
+	private static final int DEFAULT_PORT = 8080;
+
+	private static final String DEFAULT_TRUST_ANCHORS = "java/example/hw_root_ca.pem";
+
+	private static final long CHAIN_CACHE_TTL = 24 * 60 * 60 * 1000L;
+
+	private static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private static final long CHALLENGE_TTL = 5 * 60 * 1000L;
+
+	private static final int MAX_OUTSTANDING_CHALLENGES = 1000000;
+
+	static {
+		// the response headers and body are written separately, disable Nagle's algorithm so small responses are not delayed
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final HttpServer server;
+
+	private final ThreadPoolExecutor workers;
+
+	private final ChallengeService challengeService = new ChallengeService(CHALLENGE_TTL, MAX_OUTSTANDING_CHALLENGES);
+
+	private final CounterRegistry counterRegistry = new CounterRegistry();
+
+	// uid:cpu_id -> key
+	private final ConcurrentHashMap<String, RSAPublicKey> askKeys = new ConcurrentHashMap<String, RSAPublicKey>();
+
+	private final ConcurrentHashMap<String, RSAPublicKey> authKeys = new ConcurrentHashMap<String, RSAPublicKey>();
+
+	private volatile CertChainValidator chainValidator;
+
+	private volatile RSAPublicKey askVerifyKey;
+
+	/**
+	 * @param port the port to listen on, 0 for any free port
+	 * @param workerThreads the number of worker threads
+	 * @param queueSize the max number of requests waiting for a worker, the server stops accepting when the queue is full
+	 */
+	public SoterHttpServer(int port, int workerThreads, int queueSize) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		// when the queue is full, the dispatcher thread handles the request itself and stops accepting new connections meanwhile
+		workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+		server.setExecutor(workers);
+
+		server.createContext(PATH_GET_IS_SUPPORT, new JsonHandler() {
+			@Override
+			JSONObject handle(JSONObject request) {
+				return new JSONObject().put(KEY_IS_SUPPORT, true);
+			}
+		});
+		server.createContext(PATH_GET_CHALLENGE, new JsonHandler() {
+			@Override
+			JSONObject handle(JSONObject request) {
+				String challenge = challengeService.issue();
+				return challenge == null ? null : new JSONObject().put(KEY_CHALLENGE, challenge);
+			}
+		});
+		server.createContext(PATH_UPLOAD_ASK_KEY, new JsonHandler() {
+			@Override
+			JSONObject handle(JSONObject request) throws Exception {
+				return new JSONObject().put(KEY_ASK_RESULT, uploadAsk(request));
+			}
+		});
+		server.createContext(PATH_UPLOAD_PAY_AUTH_KEY, new JsonHandler() {
+			@Override
+			JSONObject handle(JSONObject request) {
+				return new JSONObject().put(KEY_AUTH_KEY_RESULT, uploadAuthKey(request));
+			}
+		});
+		server.createContext(PATH_OPEN_FINGERPRINT_PAY, new JsonHandler() {
+			@Override
+			JSONObject handle(JSONObject request) {
+				return new JSONObject().put(KEY_OPEN_RESULT, verifySignature(request));
+			}
+		});
+		server.createContext(PATH_AUTHENTICATION, new JsonHandler() {
+			@Override
+			JSONObject handle(JSONObject request) {
+				return new JSONObject().put(KEY_AUTHENTICATION_RESULT, verifySignature(request));
+			}
+		});
+	}
+
+	/**
+	 * validate the certificate chain of the uploaded ASK with the validator. If null, the ASKs with a certificate chain are rejected
+	 */
+	public void setChainValidator(CertChainValidator chainValidator) {
+		this.chainValidator = chainValidator;
+	}
+
+	/**
+	 * verify the "signature" of the uploaded ASK json without a certificate chain with the key. If null, the ASKs without a
+	 * certificate chain are rejected
+	 */
+	public void setAskVerifyKey(RSAPublicKey askVerifyKey) {
+		this.askVerifyKey = askVerifyKey;
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * stop the server
+	 * @param delaySeconds the max time to wait for the current requests
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		workers.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private boolean uploadAsk(JSONObject request) throws Exception {
+		String keyJson = request.getString(KEY_KEY_JSON);
+		JSONObject keyJsonObject = new JSONObject(keyJson);
+		JSONArray certs = keyJsonObject.optJSONArray(KEY_CERTS);
+		RSAPublicKey askKey;
+		int uid;
+		String cpuId;
+		if (certs != null && certs.length() > 0) {
+			// ASK with attestation certificate chain, the device info is in the certificate
+			CertificateFactory factory = CertificateFactory.getInstance("X.509");
+			X509Certificate[] chain = new X509Certificate[certs.length()];
+			for (int i = 0; i < chain.length; i++) {
+				chain[i] = (X509Certificate) factory.generateCertificate(
+						new ByteArrayInputStream(certs.getString(i).getBytes(StandardCharsets.UTF_8)));
+			}
+			CertChainValidator validator = chainValidator;
+			if (validator == null || !validator.validate(chain)) {
+				return false;
+			}
+			// only the leaf may carry the challenge json
+			SoterPubKeyModel model = new SoterPubKeyModel();
+			RSAUtil.extractAttestationSequence(chain[0], model);
+			askKey = (RSAPublicKey) chain[0].getPublicKey();
+			uid = model.getUid();
+			cpuId = model.getCpu_id();
+		} else {
+			RSAPublicKey verifyKey = askVerifyKey;
+			if (verifyKey == null || !request.has(KEY_SIGNATURE)) {
+				return false;
+			}
+			byte[] keyJsonBytes = keyJson.getBytes(StandardCharsets.UTF_8);
+			SoterJsonFields fields = SoterJsonExtractor.extract(keyJsonBytes);
+			if (fields == null || fields.getCpuId() == null || !fields.hasUid()) {
+				return false;
+			}
+			byte[] signature = Base64.getMimeDecoder().decode(request.getString(KEY_SIGNATURE));
+			if (!PSSVerifier.verify(verifyKey, keyJsonBytes, signature, fields.getRsaPssSaltLen())) {
+				return false;
+			}
+			askKey = RSAUtil.loadPublicKeyFromPem(fields.getPubKey());
+			uid = fields.getUid();
+			cpuId = fields.getCpuId();
+		}
+		if (askKey == null) {
+			return false;
+		}
+		askKeys.put(deviceKey(uid, cpuId), askKey);
+		return true;
+	}
+
+	private boolean uploadAuthKey(JSONObject request) {
+		byte[] keyJson = request.getString(KEY_KEY_JSON).getBytes(StandardCharsets.UTF_8);
+		SoterJsonFields fields = SoterJsonExtractor.extract(keyJson);
+		if (fields == null || fields.getCpuId() == null || !fields.hasUid()) {
+			return false;
+		}
+		String deviceKey = deviceKey(fields.getUid(), fields.getCpuId());
+		RSAPublicKey askKey = askKeys.get(deviceKey);
+		if (askKey == null) {
+			return false;
+		}
+		byte[] signature = Base64.getMimeDecoder().decode(request.getString(KEY_SIGNATURE));
+		if (!PSSVerifier.verify(askKey, keyJson, signature, fields.getRsaPssSaltLen())) {
+			return false;
+		}
+		RSAPublicKey authKey = RSAUtil.loadPublicKeyFromPem(fields.getPubKey());
+		if (authKey == null) {
+			return false;
+		}
+		authKeys.put(deviceKey, authKey);
+		counterRegistry.invalidate(fields.getUid(), fields.getCpuId(), PAY_AUTH_KEY_NAME);
+		return true;
+	}
+
+	private boolean verifySignature(JSONObject request) {
+		byte[] signatureJson = request.getString(KEY_SIGNATURE_JSON).getBytes(StandardCharsets.UTF_8);
+		SoterJsonFields fields = SoterJsonExtractor.extract(signatureJson);
+		if (fields == null || fields.getCpuId() == null || !fields.hasUid() || !fields.hasCounter() || fields.getRaw() == null) {
+			return false;
+		}
+		RSAPublicKey authKey = authKeys.get(deviceKey(fields.getUid(), fields.getCpuId()));
+		if (authKey == null) {
+			return false;
+		}
+		byte[] signature = Base64.getMimeDecoder().decode(request.getString(KEY_SIGNATURE));
+		if (!PSSVerifier.verify(authKey, signatureJson, signature, fields.getRsaPssSaltLen())) {
+			return false;
+		}
+		// the signature is genuine, now make sure it's signed for a challenge we issued and it's not replayed
+		return challengeService.consume(fields.getRaw())
+				&& counterRegistry.accept(fields.getUid(), fields.getCpuId(), PAY_AUTH_KEY_NAME, fields.getCounter());
+	}
+
+	private static String deviceKey(int uid, String cpuId) {
+		return uid + ":" + cpuId;
+	}
+
+	/**
+	 * JsonHandler parses the request body as a json object straight from the stream, and writes {"data": result} back.
+	 * A null result is reported as 503, and a failure as 400.
+	 */
+	private abstract static class JsonHandler implements HttpHandler {
+
+		abstract JSONObject handle(JSONObject request) throws Exception;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			int status;
+			JSONObject response = new JSONObject();
+			try {
+				JSONObject request = readRequest(exchange);
+				JSONObject data = handle(request);
+				if (data != null) {
+					status = 200;
+					response.put(KEY_DATA, data);
+				} else {
+					status = 503;
+				}
+			} catch (Exception e) {
+				status = 400;
+				response.put("error", String.valueOf(e.getMessage()));
+			}
+			byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+				exchange.close();
+			}
+		}
+
+		private static JSONObject readRequest(HttpExchange exchange) throws IOException {
+			InputStream in = new LimitedInputStream(exchange.getRequestBody(), MAX_BODY_SIZE);
+			try {
+				if ("GET".equals(exchange.getRequestMethod())) {
+					return new JSONObject();
+				}
+				return new JSONObject(new JSONTokener(in));
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * LimitedInputStream fails the request once the body is larger than the limit
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0 && --remaining < 0) {
+				throw new IOException("request body too large");
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count > 0) {
+				remaining -= count;
+				if (remaining < 0) {
+					throw new IOException("request body too large");
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * load the trust anchors from a PEM file, which may hold several certificates
+	 */
+	private static List<X509Certificate> loadTrustAnchors(String fileName) throws IOException, GeneralSecurityException {
+		List<X509Certificate> anchors = new ArrayList<X509Certificate>();
+		InputStream in = new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName)));
+		for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(in)) {
+			anchors.add((X509Certificate) certificate);
+		}
+		return anchors;
+	}
+
+	public static void main(String[] args) throws IOException, GeneralSecurityException {
+		Security.addProvider(new BouncyCastleProvider());
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int workerThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+		String trustAnchors = args.length > 2 ? args[2] : DEFAULT_TRUST_ANCHORS;
+		SoterHttpServer server = new SoterHttpServer(port, workerThreads, DEFAULT_QUEUE_SIZE);
+		server.setChainValidator(new CertChainValidator(loadTrustAnchors(trustAnchors), CHAIN_CACHE_TTL));
+		server.start();
+		System.out.println("SoterHttpServer listening on port " + server.getPort() + " with " + workerThreads + " workers");
+	}
+}
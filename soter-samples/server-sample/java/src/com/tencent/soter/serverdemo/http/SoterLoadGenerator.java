@@ -0,0 +1,168 @@
+package com.tencent.soter.serverdemo.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SoterLoadGenerator sends requests to a SoterHttpServer from several threads for a while, and prints the requests per second
+ * and the latency percentiles. Without an url it starts a SoterHttpServer on a free local port and loads the challenge endpoint.
+ * <p>
+ * Usage: SoterLoadGenerator [url] [threads] [seconds] [body file]
+ * @author alvinluo
+ */
+public class SoterLoadGenerator {
+
+	private static final int DEFAULT_THREADS = 16;
+
+	private static final int DEFAULT_SECONDS = 10;
+
+	private static final byte[] EMPTY_BODY = "{}".getBytes(StandardCharsets.UTF_8);
+
+	public static void main(String[] args) throws Exception {
+		SoterHttpServer localServer = null;
+		String url;
+		if (args.length > 0) {
+			url = args[0];
+		} else {
+			localServer = new SoterHttpServer(0, Runtime.getRuntime().availableProcessors() * 2, 1024);
+			localServer.start();
+			url = "http://127.0.0.1:" + localServer.getPort() + SoterHttpServer.PATH_GET_CHALLENGE;
+		}
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+		byte[] body = args.length > 3 ? Files.readAllBytes(Paths.get(args[3])) : EMPTY_BODY;
+
+		System.out.println("load " + url + " with " + threads + " threads for " + seconds + "s");
+		Result result = run(new URL(url), body, threads, seconds * 1000L);
+		System.out.println(result);
+
+		if (localServer != null) {
+			localServer.stop(0);
+		}
+	}
+
+	/**
+	 * send requests from the given number of threads until the duration is over
+	 */
+	public static Result run(final URL url, final byte[] body, int threads, long durationMillis) throws InterruptedException {
+		final long deadline = System.nanoTime() + durationMillis * 1000000L;
+		final long[][] latencies = new long[threads][];
+		final int[] counts = new int[threads];
+		final AtomicLong errorCount = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(threads);
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			final int index = i;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long[] samples = new long[1024];
+					int count = 0;
+					byte[] buffer = new byte[4096];
+					try {
+						while (System.nanoTime() < deadline) {
+							long begin = System.nanoTime();
+							if (!send(url, body, buffer)) {
+								errorCount.incrementAndGet();
+							}
+							if (count == samples.length) {
+								samples = Arrays.copyOf(samples, count * 2);
+							}
+							samples[count++] = System.nanoTime() - begin;
+						}
+					} finally {
+						latencies[index] = samples;
+						counts[index] = count;
+						done.countDown();
+					}
+				}
+			}, "SoterLoadGenerator-" + i).start();
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+
+		int total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		long[] all = new long[total];
+		int position = 0;
+		for (int i = 0; i < threads; i++) {
+			System.arraycopy(latencies[i], 0, all, position, counts[i]);
+			position += counts[i];
+		}
+		Arrays.sort(all);
+		return new Result(total, errorCount.get(), elapsed, all);
+	}
+
+	private static boolean send(URL url, byte[] body, byte[] buffer) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type", "application/json");
+			OutputStream out = connection.getOutputStream();
+			out.write(body);
+			out.close();
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				// read the whole response so the connection can be kept alive
+				while (in.read(buffer) >= 0) {
+					// drain
+				}
+				in.close();
+			}
+			return status == 200;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public static class Result {
+		private final int requestCount;
+		private final long errorCount;
+		private final long elapsedNanos;
+		private final long[] sortedLatencies;
+
+		Result(int requestCount, long errorCount, long elapsedNanos, long[] sortedLatencies) {
+			this.requestCount = requestCount;
+			this.errorCount = errorCount;
+			this.elapsedNanos = elapsedNanos;
+			this.sortedLatencies = sortedLatencies;
+		}
+
+		public double getRequestsPerSecond() {
+			return requestCount * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * @param percentile the percentile between 0 and 100
+		 * @return the latency in milliseconds
+		 */
+		public double getLatencyMillis(double percentile) {
+			if (sortedLatencies.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("requests=%d errors=%d rps=%.1f p50=%.3fms p99=%.3fms max=%.3fms",
+					requestCount, errorCount, getRequestsPerSecond(),
+					getLatencyMillis(50), getLatencyMillis(99), getLatencyMillis(100));
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package com.tencent.soter.serverdemo.service;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChallengeService issues the challenges returned to IWrapGetChallengeStr on the client, and consumes the "raw" field of the
+ * final json when the signature is verified. Every challenge can be consumed only once and expires after the ttl.
+ * <p>
+ * A challenge is 128 random bits encoded as 32 hex characters, and it's stored as two primitive longs. The challenges are spread
+ * over independently locked shards. Each shard is a timer wheel of buckets, and each bucket is an open addressing hash table for
+ * the challenges issued in one tick of the wheel. When the wheel comes back to a bucket all its challenges have expired, so the
+ * bucket is simply reset instead of scanning for expired challenges. The number of outstanding challenges of each shard is
+ * bounded, so is the memory.
+ * @author alvinluo
+ */
+public class ChallengeService {
+
+	private static final int DEFAULT_SHARDS = 16;
+
+	private static final int WHEEL_SIZE = 8;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<SecureRandom> RANDOMS = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			return new SecureRandom();
+		}
+	};
+
+	private final long ttlMillis;
+
+	private final long tickMillis;
+
+	private final Shard[] shards;
+
+	private final AtomicLong issuedCount = new AtomicLong();
+
+	private final AtomicLong consumedCount = new AtomicLong();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * @param ttlMillis how long a challenge can be consumed after it's issued
+	 * @param maxOutstanding the max number of challenges issued in any ttl period
+	 */
+	public ChallengeService(long ttlMillis, int maxOutstanding) {
+		this(ttlMillis, maxOutstanding, DEFAULT_SHARDS);
+	}
+
+	/**
+	 * @param ttlMillis how long a challenge can be consumed after it's issued
+	 * @param maxOutstanding the max number of challenges issued in any ttl period
+	 * @param shardCount the number of independently locked shards, rounded up to a power of two
+	 */
+	public ChallengeService(long ttlMillis, int maxOutstanding, int shardCount) {
+		if (ttlMillis <= 0 || maxOutstanding <= 0) {
+			throw new IllegalArgumentException("ttlMillis and maxOutstanding must be positive");
+		}
+		int size = 1;
+		while (size < shardCount) {
+			size <<= 1;
+		}
+		this.ttlMillis = ttlMillis;
+		// the buckets of the other WHEEL_SIZE - 1 ticks must cover the whole ttl
+		this.tickMillis = Math.max(1, (ttlMillis + WHEEL_SIZE - 2) / (WHEEL_SIZE - 1));
+		int shardCapacity = Math.max(1, (maxOutstanding + size - 1) / size);
+		this.shards = new Shard[size];
+		for (int i = 0; i < size; i++) {
+			shards[i] = new Shard(shardCapacity);
+		}
+	}
+
+	/**
+	 * issue a new challenge
+	 * @return the challenge, or null if there're too many outstanding challenges
+	 */
+	public String issue() {
+		SecureRandom random = RANDOMS.get();
+		long now = System.currentTimeMillis();
+		long hi = random.nextLong();
+		long lo = random.nextLong();
+		if (!shardFor(hi).add(hi, lo, now / tickMillis, now + ttlMillis)) {
+			rejectedCount.incrementAndGet();
+			return null;
+		}
+		issuedCount.incrementAndGet();
+		return toHex(hi, lo);
+	}
+
+	/**
+	 * consume the challenge
+	 * @return true if the challenge was issued by this service, has not expired and has not been consumed before
+	 */
+	public boolean consume(String challenge) {
+		if (challenge == null || challenge.length() != 32) {
+			return false;
+		}
+		for (int i = 0; i < challenge.length(); i++) {
+			if (hexValue(challenge.charAt(i)) < 0) {
+				return false;
+			}
+		}
+		long hi = parseHex(challenge, 0);
+		long lo = parseHex(challenge, 16);
+		long now = System.currentTimeMillis();
+		boolean consumed = shardFor(hi).remove(hi, lo, now, now / tickMillis);
+		if (consumed) {
+			consumedCount.incrementAndGet();
+		}
+		return consumed;
+	}
+
+	public long getIssuedCount() {
+		return issuedCount.get();
+	}
+
+	public long getConsumedCount() {
+		return consumedCount.get();
+	}
+
+	/**
+	 * @return the number of issue calls rejected because there're too many outstanding challenges
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	private Shard shardFor(long hi) {
+		return shards[(int) (hi >>> 32) & (shards.length - 1)];
+	}
+
+	private static String toHex(long hi, long lo) {
+		char[] chars = new char[32];
+		for (int i = 0; i < 16; i++) {
+			chars[i] = HEX_DIGITS[(int) (hi >>> (60 - 4 * i)) & 0xF];
+			chars[16 + i] = HEX_DIGITS[(int) (lo >>> (60 - 4 * i)) & 0xF];
+		}
+		return new String(chars);
+	}
+
+	private static long parseHex(String str, int offset) {
+		long value = 0;
+		for (int i = offset; i < offset + 16; i++) {
+			value = (value << 4) | hexValue(str.charAt(i));
+		}
+		return value;
+	}
+
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+
+	private static class Shard {
+		private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+
+		private final int capacity;
+
+		Shard(int capacity) {
+			this.capacity = capacity;
+			for (int i = 0; i < WHEEL_SIZE; i++) {
+				wheel[i] = new Bucket();
+			}
+		}
+
+		synchronized boolean add(long hi, long lo, long tick, long expireTime) {
+			Bucket bucket = wheel[(int) (tick % WHEEL_SIZE)];
+			if (bucket.tick != tick) {
+				// the challenges in the bucket are from WHEEL_SIZE ticks ago, all of them have expired
+				bucket.reset(tick);
+			}
+			int outstanding = 0;
+			for (Bucket live : wheel) {
+				if (live.isLive(tick)) {
+					outstanding += live.size;
+				}
+			}
+			if (outstanding >= capacity) {
+				return false;
+			}
+			bucket.add(hi, lo, expireTime);
+			return true;
+		}
+
+		synchronized boolean remove(long hi, long lo, long now, long tick) {
+			for (Bucket bucket : wheel) {
+				if (!bucket.isLive(tick)) {
+					continue;
+				}
+				int index = bucket.indexOf(hi, lo, now);
+				if (index >= 0) {
+					bucket.removeAt(index);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Bucket is an open addressing hash table with linear probing, its load factor is kept under 0.5.
+	 * A slot is empty if its expire time is 0.
+	 */
+	private static class Bucket {
+		private static final int INITIAL_LENGTH = 16;
+
+		private long[] his = new long[INITIAL_LENGTH];
+		private long[] los = new long[INITIAL_LENGTH];
+		private long[] expireTimes = new long[INITIAL_LENGTH];
+		private int mask = INITIAL_LENGTH - 1;
+		private int size;
+		private long tick = -1;
+
+		boolean isLive(long currentTick) {
+			return size > 0 && currentTick - tick < WHEEL_SIZE;
+		}
+
+		void reset(long newTick) {
+			if (size > 0) {
+				Arrays.fill(expireTimes, 0);
+				size = 0;
+			}
+			tick = newTick;
+		}
+
+		void add(long hi, long lo, long expireTime) {
+			if ((size + 1) * 2 > expireTimes.length) {
+				grow();
+			}
+			insert(hi, lo, expireTime);
+			size++;
+		}
+
+		private void insert(long hi, long lo, long expireTime) {
+			int index = home(lo);
+			while (expireTimes[index] != 0) {
+				index = (index + 1) & mask;
+			}
+			his[index] = hi;
+			los[index] = lo;
+			expireTimes[index] = expireTime;
+		}
+
+		private void grow() {
+			long[] oldHis = his;
+			long[] oldLos = los;
+			long[] oldExpireTimes = expireTimes;
+			int length = oldExpireTimes.length * 2;
+			his = new long[length];
+			los = new long[length];
+			expireTimes = new long[length];
+			mask = length - 1;
+			for (int i = 0; i < oldExpireTimes.length; i++) {
+				if (oldExpireTimes[i] != 0) {
+					insert(oldHis[i], oldLos[i], oldExpireTimes[i]);
+				}
+			}
+		}
+
+		int indexOf(long hi, long lo, long now) {
+			int index = home(lo);
+			while (expireTimes[index] != 0) {
+				if (his[index] == hi && los[index] == lo) {
+					return expireTimes[index] > now ? index : -1;
+				}
+				index = (index + 1) & mask;
+			}
+			return -1;
+		}
+
+		void removeAt(int index) {
+			// backward shift deletion, so no tombstone is needed
+			int hole = index;
+			int next = index;
+			while (true) {
+				next = (next + 1) & mask;
+				if (expireTimes[next] == 0) {
+					break;
+				}
+				int home = home(los[next]);
+				boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+				if (movable) {
+					his[hole] = his[next];
+					los[hole] = los[next];
+					expireTimes[hole] = expireTimes[next];
+					hole = next;
+				}
+			}
+			expireTimes[hole] = 0;
+			size--;
+		}
+
+		private int home(long lo) {
+			return (int) (lo ^ (lo >>> 32)) & mask;
+		}
+	}
+}
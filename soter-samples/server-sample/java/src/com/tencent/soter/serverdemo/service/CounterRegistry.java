@@ -0,0 +1,194 @@
+package com.tencent.soter.serverdemo.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CounterRegistry enforces that the counter in the signed json of a key only increases, so a replayed signature is rejected.
+ * Counters are keyed by (uid, cpu_id, key name).
+ * <p>
+ * Without a {@link CounterStore} the counters are only kept in memory and a new counter is accepted by a CAS on the current one.
+ * With a store, the calls of the same key are serialized by a striped lock so that a counter is saved before it's accepted,
+ * while calls of different keys rarely wait for each other.
+ * @author alvinluo
+ */
+public class CounterRegistry {
+
+	private static final int DEFAULT_STRIPES = 64;
+
+	private static final long NO_COUNTER = -1;
+
+	private final CounterStore store;
+
+	private final Object[] locks;
+
+	private final ConcurrentHashMap<CounterKey, AtomicLong> counters = new ConcurrentHashMap<CounterKey, AtomicLong>();
+
+	private final AtomicLong acceptedCount = new AtomicLong();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * create a CounterRegistry keeping the counters in memory only
+	 */
+	public CounterRegistry() {
+		this(null, DEFAULT_STRIPES);
+	}
+
+	public CounterRegistry(CounterStore store) {
+		this(store, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param store the persistence backend, or null to keep the counters in memory only
+	 * @param stripes the number of locks, rounded up to a power of two
+	 */
+	public CounterRegistry(CounterStore store, int stripes) {
+		this.store = store;
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		this.locks = new Object[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * accept the counter if it's larger than the last accepted counter of the key
+	 * @return true if accepted, false if the counter is not increasing or it can not be saved
+	 */
+	public boolean accept(int uid, String cpuId, String keyName, long counter) {
+		CounterKey key = new CounterKey(uid, cpuId, keyName);
+		boolean accepted = store == null ? acceptInMemory(key, counter) : acceptWithStore(key, counter);
+		if (accepted) {
+			acceptedCount.incrementAndGet();
+		} else {
+			rejectedCount.incrementAndGet();
+		}
+		return accepted;
+	}
+
+	/**
+	 * @return the last accepted counter of the key, or -1 if there's none
+	 */
+	public long getCounter(int uid, String cpuId, String keyName) {
+		CounterKey key = new CounterKey(uid, cpuId, keyName);
+		AtomicLong current = counters.get(key);
+		if (current != null) {
+			return current.get();
+		}
+		if (store == null) {
+			return NO_COUNTER;
+		}
+		synchronized (lockFor(key)) {
+			return loadLocked(key).get();
+		}
+	}
+
+	/**
+	 * drop the cached counter of the key, e.g. after the key is removed or the store is changed outside the registry.
+	 * Without a store this also forgets the counter.
+	 */
+	public void invalidate(int uid, String cpuId, String keyName) {
+		CounterKey key = new CounterKey(uid, cpuId, keyName);
+		synchronized (lockFor(key)) {
+			counters.remove(key);
+		}
+	}
+
+	public long getAcceptedCount() {
+		return acceptedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	private boolean acceptInMemory(CounterKey key, long counter) {
+		AtomicLong current = counters.get(key);
+		if (current == null) {
+			AtomicLong created = new AtomicLong(NO_COUNTER);
+			current = counters.putIfAbsent(key, created);
+			if (current == null) {
+				current = created;
+			}
+		}
+		while (true) {
+			long last = current.get();
+			if (counter <= last) {
+				return false;
+			}
+			if (current.compareAndSet(last, counter)) {
+				return true;
+			}
+		}
+	}
+
+	private boolean acceptWithStore(CounterKey key, long counter) {
+		synchronized (lockFor(key)) {
+			AtomicLong current = loadLocked(key);
+			if (counter <= current.get()) {
+				return false;
+			}
+			try {
+				store.save(key.uid, key.cpuId, key.keyName, counter);
+			} catch (Exception e) {
+				e.printStackTrace();
+				return false;
+			}
+			current.set(counter);
+			return true;
+		}
+	}
+
+	private AtomicLong loadLocked(CounterKey key) {
+		AtomicLong current = counters.get(key);
+		if (current == null) {
+			current = new AtomicLong(store.load(key.uid, key.cpuId, key.keyName));
+			counters.put(key, current);
+		}
+		return current;
+	}
+
+	private Object lockFor(CounterKey key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return locks[hash & (locks.length - 1)];
+	}
+
+	private static class CounterKey {
+		private final int uid;
+		private final String cpuId;
+		private final String keyName;
+		private final int hash;
+
+		CounterKey(int uid, String cpuId, String keyName) {
+			if (cpuId == null || keyName == null) {
+				throw new IllegalArgumentException("cpuId or keyName is null");
+			}
+			this.uid = uid;
+			this.cpuId = cpuId;
+			this.keyName = keyName;
+			this.hash = 31 * (31 * uid + cpuId.hashCode()) + keyName.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof CounterKey)) {
+				return false;
+			}
+			CounterKey other = (CounterKey) o;
+			return uid == other.uid && cpuId.equals(other.cpuId) && keyName.equals(other.keyName);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
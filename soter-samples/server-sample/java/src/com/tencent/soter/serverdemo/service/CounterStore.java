@@ -0,0 +1,20 @@
+package com.tencent.soter.serverdemo.service;
+
+/**
+ * CounterStore is the persistence backend of {@link CounterRegistry}, e.g. a database table keyed by (uid, cpu_id, key name).
+ * The registry serializes the calls for the same key, so an implementation only needs to be safe for different keys.
+ * @author alvinluo
+ */
+public interface CounterStore {
+
+	/**
+	 * load the last accepted counter
+	 * @return the counter, or -1 if there's no counter of the key yet
+	 */
+	long load(int uid, String cpuId, String keyName);
+
+	/**
+	 * save the accepted counter. The counter is accepted only if this method returns normally
+	 */
+	void save(int uid, String cpuId, String keyName, long counter) throws Exception;
+}
@@ -0,0 +1,124 @@
+package com.tencent.soter.serverdemo.utils;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * BatchVerifier verifies a list of signatures in parallel on the given executor.
+ * The items are split into contiguous chunks, each chunk is verified by one task with {@link PSSVerifier},
+ * and the results are returned in the same order as the input.
+ * @author alvinluo
+ */
+public class BatchVerifier {
+
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	/**
+	 * create a BatchVerifier running on the common {@link ForkJoinPool}
+	 */
+	public BatchVerifier() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public BatchVerifier(ForkJoinPool pool) {
+		this(pool, pool.getParallelism());
+	}
+
+	/**
+	 * @param executor the executor to run the verifications
+	 * @param parallelism the number of threads of the executor, used to decide how to split the batch
+	 */
+	public BatchVerifier(ExecutorService executor, int parallelism) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor is null");
+		}
+		this.executor = executor;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * verify all the items
+	 * @param items the items to verify
+	 * @return the verify result of each item, in the same order as the items
+	 */
+	public boolean[] verify(final List<Item> items) throws InterruptedException {
+		final boolean[] results = new boolean[items.size()];
+		if (items.isEmpty()) {
+			return results;
+		}
+
+		int chunkCount = Math.min(items.size(), parallelism * CHUNKS_PER_THREAD);
+		int chunkSize = (items.size() + chunkCount - 1) / chunkCount;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunkCount);
+		for (int start = 0; start < items.size(); start += chunkSize) {
+			final int from = start;
+			final int to = Math.min(items.size(), start + chunkSize);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++) {
+						Item item = items.get(i);
+						results[i] = item != null && PSSVerifier.verify(item.publicKey, item.data, item.sign, item.saltLen);
+					}
+					return null;
+				}
+			});
+		}
+
+		// invokeAll waits for every task, and the results written by the tasks are visible once the futures are done
+		for (Future<Void> future : executor.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Item is one (public key, data, signature, saltLen) tuple to verify
+	 */
+	public static class Item {
+		private final RSAPublicKey publicKey;
+		private final byte[] data;
+		private final byte[] sign;
+		private final int saltLen;
+
+		public Item(RSAPublicKey publicKey, byte[] data, byte[] sign) {
+			this(publicKey, data, sign, PSSVerifier.DEFAULT_SALT_LEN);
+		}
+
+		public Item(RSAPublicKey publicKey, byte[] data, byte[] sign, int saltLen) {
+			this.publicKey = publicKey;
+			this.data = data;
+			this.sign = sign;
+			this.saltLen = saltLen;
+		}
+
+		public RSAPublicKey getPublicKey() {
+			return publicKey;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public byte[] getSign() {
+			return sign;
+		}
+
+		public int getSaltLen() {
+			return saltLen;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.tencent.soter.serverdemo.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CertChainValidator validates the attestation certificate chain uploaded with the ASK, e.g. the "certs" array of hw_ask_cert_json.
+ * The chain is ordered from the attested key certificate to the root. Every certificate must be signed by the next one and
+ * be within its validity period, and the last one must either be a trust anchor or be signed by a trust anchor.
+ * <p>
+ * Attestation chains do not always have matching subject and issuer names, so the chain is checked link by link with the
+ * public keys instead of building a PKIX path. The attested key certificate is signed by the device certificate, which is not a
+ * CA, so only the certificates above the device certificate must be CAs. Only the leaf may carry the KeyDescription extension:
+ * otherwise an attested key could sign a fake leaf with any challenge json, so the challenge must be read from chain[0] only.
+ * Intermediates that have been validated up to a trust anchor and the verdicts of
+ * whole chains are cached by SHA-256 fingerprint until they expire, so uploads from the same device model only cost a hash
+ * lookup plus the signature check of the new certificates.
+ * @author alvinluo
+ */
+public class CertChainValidator {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private static final String KEY_DESCRIPTION_OID = "1.3.6.1.4.1.11129.2.1.17";
+
+	// chain[0] is the attested key certificate, and chain[1] is the device certificate signing it
+	private static final int FIRST_CA_INDEX = 2;
+
+	// the keyCertSign bit of the KeyUsage extension
+	private static final int KEY_CERT_SIGN = 5;
+
+	private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance(DIGEST_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private final Map<ByteBuffer, X509Certificate> trustAnchors = new HashMap<ByteBuffer, X509Certificate>();
+
+	private final long ttlMillis;
+
+	// fingerprint of a validated intermediate -> expire time
+	private final ConcurrentHashMap<ByteBuffer, Long> trustedIntermediates = new ConcurrentHashMap<ByteBuffer, Long>();
+
+	// fingerprint of a whole chain -> verdict
+	private final ConcurrentHashMap<ByteBuffer, Verdict> chainVerdicts = new ConcurrentHashMap<ByteBuffer, Verdict>();
+
+	private final AtomicLong verdictHitCount = new AtomicLong();
+
+	private final AtomicLong intermediateHitCount = new AtomicLong();
+
+	private final AtomicLong signatureCheckCount = new AtomicLong();
+
+	/**
+	 * @param trustAnchors the root certificates trusted by the server
+	 * @param ttlMillis how long the validated intermediates and the chain verdicts are cached
+	 */
+	public CertChainValidator(Collection<X509Certificate> trustAnchors, long ttlMillis) {
+		if (trustAnchors == null || trustAnchors.isEmpty()) {
+			throw new IllegalArgumentException("trustAnchors is empty");
+		}
+		for (X509Certificate anchor : trustAnchors) {
+			ByteBuffer fingerprint = fingerprint(anchor);
+			if (fingerprint == null) {
+				throw new IllegalArgumentException("invalid trust anchor " + anchor.getSubjectX500Principal());
+			}
+			this.trustAnchors.put(fingerprint, anchor);
+		}
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * validate the certificate chain
+	 * @param chain the certificates ordered from the attested key certificate to the root
+	 * @return true if the chain is valid and ends at a trust anchor
+	 */
+	public boolean validate(List<X509Certificate> chain) {
+		return validate(chain.toArray(new X509Certificate[chain.size()]));
+	}
+
+	/**
+	 * validate the certificate chain
+	 * @param chain the certificates ordered from the attested key certificate to the root
+	 * @return true if the chain is valid and ends at a trust anchor
+	 */
+	public boolean validate(X509Certificate[] chain) {
+		if (chain == null || chain.length == 0) {
+			return false;
+		}
+		ByteBuffer[] fingerprints = new ByteBuffer[chain.length];
+		MessageDigest chainDigest = DIGESTS.get();
+		for (int i = 0; i < chain.length; i++) {
+			fingerprints[i] = fingerprint(chain[i]);
+			if (fingerprints[i] == null) {
+				return false;
+			}
+		}
+		// fingerprint() uses the same thread local digest, so the chain digest is only computed after all of them
+		for (ByteBuffer fingerprint : fingerprints) {
+			chainDigest.update(fingerprint.duplicate());
+		}
+		ByteBuffer chainFingerprint = ByteBuffer.wrap(chainDigest.digest());
+
+		long now = System.currentTimeMillis();
+		Verdict verdict = chainVerdicts.get(chainFingerprint);
+		if (verdict != null && now < verdict.expireTime) {
+			verdictHitCount.incrementAndGet();
+			return verdict.valid;
+		}
+
+		int trustedIndex = checkStructure(chain) ? findTrustedIndex(chain, fingerprints, now) : -1;
+		boolean valid = trustedIndex >= 0;
+		if (valid) {
+			// neither the leaf nor the device certificate is a CA, only the CAs above them may be trusted for other chains
+			for (int i = FIRST_CA_INDEX; i < trustedIndex; i++) {
+				trustedIntermediates.put(fingerprints[i], now + ttlMillis);
+			}
+		}
+		chainVerdicts.put(chainFingerprint, new Verdict(valid, now + ttlMillis));
+		return valid;
+	}
+
+	/**
+	 * remove all the cached intermediates and chain verdicts
+	 */
+	public void invalidateAll() {
+		trustedIntermediates.clear();
+		chainVerdicts.clear();
+	}
+
+	/**
+	 * remove the expired intermediates and chain verdicts
+	 */
+	public void cleanUp() {
+		long now = System.currentTimeMillis();
+		Iterator<Long> intermediates = trustedIntermediates.values().iterator();
+		while (intermediates.hasNext()) {
+			if (now >= intermediates.next()) {
+				intermediates.remove();
+			}
+		}
+		Iterator<Verdict> verdicts = chainVerdicts.values().iterator();
+		while (verdicts.hasNext()) {
+			if (now >= verdicts.next().expireTime) {
+				verdicts.remove();
+			}
+		}
+	}
+
+	public long getVerdictHitCount() {
+		return verdictHitCount.get();
+	}
+
+	public long getIntermediateHitCount() {
+		return intermediateHitCount.get();
+	}
+
+	public long getSignatureCheckCount() {
+		return signatureCheckCount.get();
+	}
+
+	/**
+	 * check the roles of the certificates before any signature: no certificate above the leaf may carry the KeyDescription
+	 * extension, and the certificates above the device certificate must be CAs allowed to sign certificates
+	 */
+	private static boolean checkStructure(X509Certificate[] chain) {
+		for (int i = 1; i < chain.length; i++) {
+			if (chain[i].getExtensionValue(KEY_DESCRIPTION_OID) != null) {
+				System.err.println("Error: certificate " + chain[i].getSubjectX500Principal() + " above the leaf has a key description");
+				return false;
+			}
+			if (i >= FIRST_CA_INDEX && !isCa(chain[i])) {
+				System.err.println("Error: certificate " + chain[i].getSubjectX500Principal() + " is not a CA");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isCa(X509Certificate cert) {
+		if (cert.getBasicConstraints() < 0) {
+			return false;
+		}
+		boolean[] keyUsage = cert.getKeyUsage();
+		return keyUsage == null || (keyUsage.length > KEY_CERT_SIGN && keyUsage[KEY_CERT_SIGN]);
+	}
+
+	/**
+	 * walk up the chain until a trusted certificate is reached
+	 * @return the index of the first trusted certificate, or chain.length if the last certificate is signed by a trust anchor,
+	 * or -1 if the chain is invalid
+	 */
+	private int findTrustedIndex(X509Certificate[] chain, ByteBuffer[] fingerprints, long now) {
+		for (int i = 0; i < chain.length; i++) {
+			if (trustAnchors.containsKey(fingerprints[i])) {
+				return checkValidity(chain[i]) ? i : -1;
+			}
+			if (i >= FIRST_CA_INDEX && isTrustedIntermediate(fingerprints[i], now)) {
+				intermediateHitCount.incrementAndGet();
+				return i;
+			}
+			if (!checkValidity(chain[i])) {
+				return -1;
+			}
+			if (i + 1 < chain.length) {
+				if (!verifySignature(chain[i], chain[i + 1])) {
+					return -1;
+				}
+			} else {
+				for (X509Certificate anchor : trustAnchors.values()) {
+					if (verifySignature(chain[i], anchor)) {
+						return chain.length;
+					}
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isTrustedIntermediate(ByteBuffer fingerprint, long now) {
+		Long expireTime = trustedIntermediates.get(fingerprint);
+		if (expireTime == null) {
+			return false;
+		}
+		if (now >= expireTime) {
+			trustedIntermediates.remove(fingerprint, expireTime);
+			return false;
+		}
+		return true;
+	}
+
+	private boolean verifySignature(X509Certificate cert, X509Certificate issuer) {
+		signatureCheckCount.incrementAndGet();
+		try {
+			cert.verify(issuer.getPublicKey());
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static boolean checkValidity(X509Certificate cert) {
+		try {
+			cert.checkValidity();
+			return true;
+		} catch (Exception e) {
+			System.err.println("Error: certificate " + cert.getSubjectX500Principal() + " is not valid now");
+			return false;
+		}
+	}
+
+	private static ByteBuffer fingerprint(X509Certificate cert) {
+		try {
+			return ByteBuffer.wrap(DIGESTS.get().digest(cert.getEncoded()));
+		} catch (CertificateEncodingException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static class Verdict {
+		private final boolean valid;
+		private final long expireTime;
+
+		Verdict(boolean valid, long expireTime) {
+			this.valid = valid;
+			this.expireTime = expireTime;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.tencent.soter.serverdemo.utils;
+
+/**
+ * DerCursor walks DER encoded data in place. It reads one TLV header at a time and exposes the value as an offset and
+ * length into the original array, so no object tree and no copy of the data are created.
+ * @author alvinluo
+ */
+public class DerCursor {
+
+	public static final int TAG_INTEGER = 0x02;
+
+	public static final int TAG_OCTET_STRING = 0x04;
+
+	public static final int TAG_SEQUENCE = 0x30;
+
+	private static final int ATTESTATION_CHALLENGE_INDEX = 4;
+
+	private final byte[] data;
+
+	private int position;
+
+	private int limit;
+
+	private int tag = -1;
+
+	private int valueOffset;
+
+	private int valueLength;
+
+	public DerCursor(byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	public DerCursor(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IllegalArgumentException("invalid range");
+		}
+		this.data = data;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	/**
+	 * read the header of the next element at the current level
+	 * @return false if there's no more element, or the element is malformed
+	 */
+	public boolean next() {
+		tag = -1;
+		if (position >= limit) {
+			return false;
+		}
+		int index = position;
+		int currentTag = data[index++] & 0xFF;
+		if ((currentTag & 0x1F) == 0x1F) {
+			// high tag number form, the tag number continues while the highest bit is set
+			int count = 0;
+			do {
+				if (index >= limit || ++count > 4) {
+					return false;
+				}
+			} while ((data[index++] & 0x80) != 0);
+		}
+		if (index >= limit) {
+			return false;
+		}
+		int length = data[index++] & 0xFF;
+		if (length > 0x80) {
+			int lengthBytes = length & 0x7F;
+			if (lengthBytes > 4 || index + lengthBytes > limit) {
+				return false;
+			}
+			length = 0;
+			for (int i = 0; i < lengthBytes; i++) {
+				length = (length << 8) | (data[index++] & 0xFF);
+			}
+			if (length < 0) {
+				return false;
+			}
+		} else if (length == 0x80) {
+			// indefinite length is not allowed in DER
+			return false;
+		}
+		if (length > limit - index) {
+			return false;
+		}
+		tag = currentTag;
+		valueOffset = index;
+		valueLength = length;
+		position = index + length;
+		return true;
+	}
+
+	/**
+	 * skip the given number of elements at the current level
+	 * @return false if there're not enough elements
+	 */
+	public boolean skip(int count) {
+		for (int i = 0; i < count; i++) {
+			if (!next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * move into the value of the current element, the following {@link #next()} reads its first child
+	 */
+	public void enter() {
+		if (tag < 0) {
+			throw new IllegalStateException("no current element");
+		}
+		position = valueOffset;
+		limit = valueOffset + valueLength;
+		tag = -1;
+	}
+
+	/**
+	 * @return the tag of the current element, only the first byte for high tag numbers, or -1 if there's no current element
+	 */
+	public int getTag() {
+		return tag;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getValueOffset() {
+		return valueOffset;
+	}
+
+	public int getValueLength() {
+		return valueLength;
+	}
+
+	/**
+	 * locate the attestationChallenge field of the KeyDescription extension in the attestation certificate.
+	 * The extension value is an OCTET STRING wrapping the KeyDescription SEQUENCE, and the challenge is its fifth element.
+	 * @param extensionValue the value returned by {@link java.security.cert.X509Certificate#getExtensionValue(String)}
+	 * @return the cursor on the attestationChallenge OCTET STRING, or null if the extension is malformed
+	 */
+	public static DerCursor locateAttestationChallenge(byte[] extensionValue) {
+		if (extensionValue == null) {
+			return null;
+		}
+		DerCursor cursor = new DerCursor(extensionValue);
+		if (!cursor.next() || cursor.getTag() != TAG_OCTET_STRING) {
+			return null;
+		}
+		cursor.enter();
+		if (!cursor.next() || cursor.getTag() != TAG_SEQUENCE) {
+			return null;
+		}
+		cursor.enter();
+		if (!cursor.skip(ATTESTATION_CHALLENGE_INDEX) || !cursor.next() || cursor.getTag() != TAG_OCTET_STRING) {
+			return null;
+		}
+		return cursor;
+	}
+}
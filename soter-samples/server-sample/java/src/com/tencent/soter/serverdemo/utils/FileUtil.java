@@ -1,13 +1,8 @@
 package com.tencent.soter.serverdemo.utils;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 
 public class FileUtil {
 
@@ -15,103 +10,68 @@ public class FileUtil {
 	 * The function is used to read public key from file.
 	 */
 	public static String readFromFile(String fileName, boolean isAppendLineSeparator) {
-		String lineSeparator = System.getProperty("line.separator");
-		File file = new File(fileName);
-		if (!file.exists()) {
-			System.err.println("Error: file " + fileName + " not found!");
+		String content = readContent(fileName);
+		if (content == null) {
 			return null;
 		}
-
-		BufferedReader reader = null;
-		InputStream in = null;
-		try {
-			in = new FileInputStream(new File(fileName));
-			reader = new BufferedReader(new InputStreamReader(in));
-			String line = null;
-			StringBuilder stringBuilder = new StringBuilder();
-			while ((line = reader.readLine()) != null) {
-				if (line.startsWith("-")) {
-					continue;
-				} else {
-					stringBuilder.append(line);
-					if (isAppendLineSeparator) {
-						stringBuilder.append(lineSeparator);
-					}
-				}
-
+		String lineSeparator = System.getProperty("line.separator");
+		StringBuilder stringBuilder = new StringBuilder(content.length());
+		int lineStart = 0;
+		while (lineStart < content.length()) {
+			int lineEnd = lineStart;
+			while (lineEnd < content.length() && content.charAt(lineEnd) != '\n' && content.charAt(lineEnd) != '\r') {
+				lineEnd++;
 			}
-			return stringBuilder.toString();
-		} catch (Exception e) {
-			e.printStackTrace();
-			return null;
-		} finally {
-			if (reader != null) {
-				try {
-					reader.close();
-				} catch (IOException e1) {
-					e1.printStackTrace();
+			if (content.charAt(lineStart) != '-' || lineEnd == lineStart) {
+				stringBuilder.append(content, lineStart, lineEnd);
+				if (isAppendLineSeparator) {
+					stringBuilder.append(lineSeparator);
 				}
 			}
+			// \r\n is one line terminator
+			if (lineEnd + 1 < content.length() && content.charAt(lineEnd) == '\r' && content.charAt(lineEnd + 1) == '\n') {
+				lineEnd++;
+			}
+			lineStart = lineEnd + 1;
 		}
+		return stringBuilder.toString();
 	}
 
 	public static String readFromFile(String fileName) {
-		File file = new File(fileName);
-		if (!file.exists()) {
-			System.err.println("Error: file " + fileName + " not found!");
+		String content = readContent(fileName);
+		if (content == null) {
 			return null;
 		}
-
-		BufferedReader reader = null;
-		InputStream in = null;
-		try {
-			in = new FileInputStream(new File(fileName));
-			reader = new BufferedReader(new InputStreamReader(in));
-			String line = null;
-			StringBuilder stringBuilder = new StringBuilder();
-			while ((line = reader.readLine()) != null) {
-				stringBuilder.append(line);
-			}
-			return stringBuilder.toString();
-		} catch (Exception e) {
-			e.printStackTrace();
-			return null;
-		} finally {
-			if (reader != null) {
-				try {
-					reader.close();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+		StringBuilder stringBuilder = new StringBuilder(content.length());
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c != '\n' && c != '\r') {
+				stringBuilder.append(c);
 			}
 		}
+		return stringBuilder.toString();
 	}
+
 	public static byte[] readByteArrayFromFile(String fileName) {
-		BufferedInputStream in = null;
 		try {
-			File file = new File(fileName);
-
-			ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
-			in = new BufferedInputStream(new FileInputStream(file));
-			byte[] buffer = new byte[1024];
-			int len = -1;
-			while ((len = in.read(buffer, 0, 1024)) != -1) {
-				out.write(buffer, 0, len);
-			}
-			byte[] data = out.toByteArray();
-			return data;
-
+			return NioFileLoader.readBytes(new File(fileName).toPath());
 		} catch (Exception e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				in.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
 		}
 		return null;
 	}
 
-
+	private static String readContent(String fileName) {
+		File file = new File(fileName);
+		if (!file.exists()) {
+			System.err.println("Error: file " + fileName + " not found!");
+			return null;
+		}
+		try {
+			return new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
 }
@@ -0,0 +1,177 @@
+package com.tencent.soter.serverdemo.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * NioFileLoader loads key and signature files with NIO. Small files are read in one call, large ones are memory mapped.
+ * PEM files are Base64 decoded straight from the file bytes, without reading them line by line into Strings.
+ * @author alvinluo
+ */
+public class NioFileLoader {
+
+	/**
+	 * files larger than this are memory mapped instead of read into the heap
+	 */
+	public static final long MAP_THRESHOLD = 1024 * 1024;
+
+	private static final byte[] BASE64_VALUES = new byte[128];
+
+	private static final byte INVALID = -1;
+
+	private static final byte SKIP = -2;
+
+	private static final byte PADDING = -3;
+
+	static {
+		Arrays.fill(BASE64_VALUES, INVALID);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++) {
+			BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+		}
+		BASE64_VALUES[' '] = SKIP;
+		BASE64_VALUES['\t'] = SKIP;
+		BASE64_VALUES['\r'] = SKIP;
+		BASE64_VALUES['\n'] = SKIP;
+		BASE64_VALUES['='] = PADDING;
+	}
+
+	/**
+	 * read the whole file
+	 */
+	public static byte[] readBytes(Path path) throws IOException {
+		return Files.readAllBytes(path);
+	}
+
+	/**
+	 * get the content of the file as a buffer, memory mapped if it's larger than {@link #MAP_THRESHOLD}
+	 */
+	public static ByteBuffer load(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > MAP_THRESHOLD) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				buffer.load();
+				return buffer;
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read until full
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * decode the DER bytes of a PEM file. The armor lines starting with '-' are skipped and the rest is Base64 decoded.
+	 * @return the DER bytes, or null if the content is not valid Base64
+	 */
+	public static byte[] decodePem(ByteBuffer pem) {
+		ByteBuffer buffer = pem.duplicate();
+		byte[] out = new byte[buffer.remaining() * 3 / 4 + 3];
+		int outLength = 0;
+		int bits = 0;
+		int bitCount = 0;
+		boolean lineStart = true;
+		boolean padded = false;
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (lineStart && b == '-') {
+				// skip the armor line
+				while (buffer.hasRemaining() && b != '\n') {
+					b = buffer.get();
+				}
+				lineStart = true;
+				continue;
+			}
+			lineStart = b == '\n';
+			if (b < 0) {
+				return null;
+			}
+			byte value = BASE64_VALUES[b];
+			if (value == SKIP) {
+				continue;
+			}
+			if (value == PADDING) {
+				padded = true;
+				continue;
+			}
+			if (value == INVALID || padded) {
+				return null;
+			}
+			bits = (bits << 6) | value;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				out[outLength++] = (byte) (bits >> bitCount);
+			}
+		}
+		return Arrays.copyOf(out, outLength);
+	}
+
+	/**
+	 * load the public key from a PEM file, the parsed key is kept in {@link RSAUtil#getPublicKeyCache()}
+	 */
+	public static RSAPublicKey loadPublicKey(Path path) throws IOException {
+		byte[] der = decodePem(load(path));
+		return der == null ? null : RSAUtil.getPublicKeyCache().get(der);
+	}
+
+	/**
+	 * read all the files matching the glob in the directory, e.g. "*.bin"
+	 * @return file name to content, sorted by file name
+	 */
+	public static Map<String, byte[]> readDirectory(Path directory, String glob) throws IOException {
+		Map<String, byte[]> result = new TreeMap<String, byte[]>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob);
+		try {
+			for (Path path : stream) {
+				if (Files.isRegularFile(path)) {
+					result.put(path.getFileName().toString(), readBytes(path));
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		return result;
+	}
+
+	/**
+	 * load the public keys of all the PEM files matching the glob in the directory, e.g. "*.pem"
+	 * @return file name to public key, sorted by file name. Files which can not be parsed are skipped
+	 */
+	public static Map<String, RSAPublicKey> loadPublicKeys(Path directory, String glob) throws IOException {
+		Map<String, RSAPublicKey> result = new TreeMap<String, RSAPublicKey>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob);
+		try {
+			for (Path path : stream) {
+				if (!Files.isRegularFile(path)) {
+					continue;
+				}
+				RSAPublicKey publicKey = loadPublicKey(path);
+				if (publicKey != null) {
+					result.put(path.getFileName().toString(), publicKey);
+				} else {
+					System.err.println("Error: file " + path + " is not a valid public key");
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,143 @@
+package com.tencent.soter.serverdemo.utils;
+
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * PSSVerifier is the reusable engine to verify SHA256withRSA/PSS signatures.
+ * Each thread keeps its own {@link Signature} per salt length and the {@link PSSParameterSpec} objects are shared,
+ * so that verifying a signature does not look up the provider or build a new spec every time.
+ * @author alvinluo
+ */
+public class PSSVerifier {
+
+	public static final int DEFAULT_SALT_LEN = 20;
+
+	private static final String SIGNATURE_ALGORITHM = "SHA256withRSA/PSS";
+
+	private static final ConcurrentHashMap<Integer, PSSParameterSpec> PSS_SPECS = new ConcurrentHashMap<Integer, PSSParameterSpec>();
+
+	private static final ThreadLocal<Map<Integer, Signature>> SIGNATURES = new ThreadLocal<Map<Integer, Signature>>() {
+		@Override
+		protected Map<Integer, Signature> initialValue() {
+			return new HashMap<Integer, Signature>();
+		}
+	};
+
+	private static final AtomicLong verifyCount = new AtomicLong();
+
+	private static final AtomicLong instanceCount = new AtomicLong();
+
+	private static volatile Provider provider;
+
+	/**
+	 * verify signature with the default salt length
+	 * @param publicKey the public key used to verify signature
+	 * @param data the origin data
+	 * @param sign the signature
+	 * @return true if verify successfully, false otherwise
+	 */
+	public static boolean verify(RSAPublicKey publicKey, byte[] data, byte[] sign) {
+		return verify(publicKey, data, 0, data == null ? 0 : data.length, sign, DEFAULT_SALT_LEN);
+	}
+
+	/**
+	 * verify signature
+	 * @param publicKey the public key used to verify signature
+	 * @param data the origin data
+	 * @param sign the signature
+	 * @param saltLen the saltLen, values smaller than {@link #DEFAULT_SALT_LEN} are raised to it
+	 * @return true if verify successfully, false otherwise
+	 */
+	public static boolean verify(RSAPublicKey publicKey, byte[] data, byte[] sign, int saltLen) {
+		return verify(publicKey, data, 0, data == null ? 0 : data.length, sign, saltLen);
+	}
+
+	/**
+	 * verify signature over a region of the data array
+	 * @param publicKey the public key used to verify signature
+	 * @param data the array containing the origin data
+	 * @param offset the start of the origin data in the array
+	 * @param length the length of the origin data
+	 * @param sign the signature
+	 * @param saltLen the saltLen, values smaller than {@link #DEFAULT_SALT_LEN} are raised to it
+	 * @return true if verify successfully, false otherwise
+	 */
+	public static boolean verify(RSAPublicKey publicKey, byte[] data, int offset, int length, byte[] sign, int saltLen) {
+		if (saltLen < DEFAULT_SALT_LEN) {
+			saltLen = DEFAULT_SALT_LEN;
+		}
+		verifyCount.incrementAndGet();
+		Map<Integer, Signature> signatures = SIGNATURES.get();
+		Signature signature = signatures.get(saltLen);
+		try {
+			if (signature == null) {
+				signature = newSignature(saltLen);
+				signatures.put(saltLen, signature);
+			}
+			signature.initVerify(publicKey);
+			signature.update(data, offset, length);
+			return signature.verify(sign);
+		} catch (Exception e) {
+			// the instance may be left in an unknown state, drop it and create a new one next time
+			signatures.remove(saltLen);
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of signatures verified by this engine
+	 */
+	public static long getVerifyCount() {
+		return verifyCount.get();
+	}
+
+	/**
+	 * @return the number of {@link Signature} instances created, i.e. the provider lookups done by this engine
+	 */
+	public static long getInstanceCount() {
+		return instanceCount.get();
+	}
+
+	private static Signature newSignature(int saltLen) throws Exception {
+		Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM, getProvider());
+		signature.setParameter(getSpec(saltLen));
+		instanceCount.incrementAndGet();
+		return signature;
+	}
+
+	private static PSSParameterSpec getSpec(int saltLen) {
+		PSSParameterSpec spec = PSS_SPECS.get(saltLen);
+		if (spec == null) {
+			spec = new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, saltLen, 1);
+			PSSParameterSpec previous = PSS_SPECS.putIfAbsent(saltLen, spec);
+			if (previous != null) {
+				spec = previous;
+			}
+		}
+		return spec;
+	}
+
+	private static Provider getProvider() {
+		Provider result = provider;
+		if (result == null) {
+			result = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+			if (result == null) {
+				result = new BouncyCastleProvider();
+			}
+			provider = result;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,200 @@
+package com.tencent.soter.serverdemo.utils;
+
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PublicKeyCache keeps parsed {@link RSAPublicKey} objects keyed by the SHA-256 digest of their DER encoding,
+ * so that verifying with the same ASK or auth key again does not parse the ASN.1 structure again.
+ * The cache is bounded, the least recently used key is evicted first and every key expires after the given ttl.
+ * @author alvinluo
+ */
+public class PublicKeyCache {
+
+	private static final String ALGORITHM_NAME = "RSA";
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance(DIGEST_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private final int maxSize;
+
+	private final long ttlMillis;
+
+	private final LinkedHashMap<ByteBuffer, CachedKey> entries;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxSize the max number of keys kept in the cache
+	 * @param ttlMillis how long a key stays in the cache after it is parsed, 0 or negative means never expire
+	 */
+	public PublicKeyCache(int maxSize, long ttlMillis) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<ByteBuffer, CachedKey>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedKey> eldest) {
+				if (size() > PublicKeyCache.this.maxSize) {
+					evictionCount.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * get the public key of the DER encoded X.509 SubjectPublicKeyInfo, parse it only if it is not cached
+	 * @param encoded the DER encoded public key
+	 * @return the public key, or null if the encoded key is invalid
+	 */
+	public RSAPublicKey get(byte[] encoded) {
+		if (encoded == null) {
+			return null;
+		}
+		ByteBuffer digest = digest(encoded);
+		long now = System.currentTimeMillis();
+		synchronized (entries) {
+			CachedKey entry = entries.get(digest);
+			if (entry != null) {
+				if (!entry.isExpired(now)) {
+					hitCount.incrementAndGet();
+					return entry.publicKey;
+				}
+				entries.remove(digest);
+				evictionCount.incrementAndGet();
+			}
+		}
+		missCount.incrementAndGet();
+
+		RSAPublicKey publicKey = parse(encoded);
+		if (publicKey != null) {
+			long expireTime = ttlMillis > 0 ? now + ttlMillis : Long.MAX_VALUE;
+			synchronized (entries) {
+				entries.put(digest, new CachedKey(publicKey, expireTime));
+			}
+		}
+		return publicKey;
+	}
+
+	/**
+	 * remove the public key from the cache
+	 * @param encoded the DER encoded public key
+	 * @return true if the key was cached
+	 */
+	public boolean invalidate(byte[] encoded) {
+		if (encoded == null) {
+			return false;
+		}
+		ByteBuffer digest = digest(encoded);
+		synchronized (entries) {
+			return entries.remove(digest) != null;
+		}
+	}
+
+	/**
+	 * remove all the public keys from the cache
+	 */
+	public void invalidateAll() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * remove the expired public keys from the cache
+	 */
+	public void cleanUp() {
+		long now = System.currentTimeMillis();
+		synchronized (entries) {
+			Iterator<CachedKey> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().isExpired(now)) {
+					iterator.remove();
+					evictionCount.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PublicKeyCache{" +
+				"size=" + size() +
+				", hitCount=" + hitCount.get() +
+				", missCount=" + missCount.get() +
+				", evictionCount=" + evictionCount.get() +
+				'}';
+	}
+
+	private static ByteBuffer digest(byte[] encoded) {
+		return ByteBuffer.wrap(DIGESTS.get().digest(encoded));
+	}
+
+	private static RSAPublicKey parse(byte[] encoded) {
+		try {
+			KeyFactory factory = KeyFactory.getInstance(ALGORITHM_NAME);
+			return (RSAPublicKey) factory.generatePublic(new X509EncodedKeySpec(encoded));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static class CachedKey {
+		private final RSAPublicKey publicKey;
+		private final long expireTime;
+
+		CachedKey(RSAPublicKey publicKey, long expireTime) {
+			this.publicKey = publicKey;
+			this.expireTime = expireTime;
+		}
+
+		boolean isExpired(long now) {
+			return now >= expireTime;
+		}
+	}
+}
@@ -1,23 +1,12 @@
 package com.tencent.soter.serverdemo.utils;
 
 import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.Signature;
-import java.security.SignatureException;
+import java.nio.file.Paths;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
-import java.security.spec.*;
 
 import com.tencent.soter.serverdemo.SoterPubKeyModel;
-import org.bouncycastle.asn1.ASN1InputStream;
-import org.bouncycastle.asn1.ASN1OctetString;
-import org.bouncycastle.asn1.ASN1Sequence;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.encoders.Base64;
-import org.json.JSONObject;
 
 /**
  * RSAUtil is the helper class to load keys and verify signature and so on.
@@ -25,37 +14,64 @@ import org.json.JSONObject;
  */
 public class RSAUtil {
 
-	private static final String ALGORITHM_NAME = "RSA";
-
 	private static final String KEY_DESCRIPTION_OID = "1.3.6.1.4.1.11129.2.1.17";
 
-	private static final int ATTESTATION_CHALLENGE_INDEX = 4;
+	private static final int PUBLIC_KEY_CACHE_SIZE = 1024;
+
+	private static final long PUBLIC_KEY_CACHE_TTL = 10 * 60 * 1000L;
+
+	private static final PublicKeyCache PUBLIC_KEY_CACHE = new PublicKeyCache(PUBLIC_KEY_CACHE_SIZE, PUBLIC_KEY_CACHE_TTL);
 
 	/**
 	 * load PublicKey from file
 	 */
 	public static RSAPublicKey loadPublicKeyFromFile(String fileName) {
-		return loadPublicKey(FileUtil.readFromFile(fileName, true));
+		try {
+			return NioFileLoader.loadPublicKey(Paths.get(fileName));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
 	}
 
+	/**
+	 * load PublicKey from the Base64 encoded DER body of a PEM file. The parsed keys are kept in {@link #getPublicKeyCache()}
+	 */
 	public static RSAPublicKey loadPublicKey(String str) {
 		if (str == null) {
 			return null;
 		}
 
 		try {
-			byte[] buffer = Base64.decode(str);
-			KeyFactory factory = KeyFactory.getInstance(ALGORITHM_NAME);
-			X509EncodedKeySpec spec = new X509EncodedKeySpec(buffer);
-			return (RSAPublicKey) factory.generatePublic(spec);
-			
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-		} catch (InvalidKeySpecException e) {
+			return PUBLIC_KEY_CACHE.get(Base64.decode(str));
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return null;
-	} 
+	}
+
+	/**
+	 * load PublicKey from the content of a PEM file, e.g. the pub_key field in the key json
+	 */
+	public static RSAPublicKey loadPublicKeyFromPem(String pem) {
+		if (pem == null) {
+			return null;
+		}
+		StringBuilder body = new StringBuilder(pem.length());
+		for (String line : pem.split("\\r?\\n")) {
+			if (!line.startsWith("-")) {
+				body.append(line.trim());
+			}
+		}
+		return loadPublicKey(body.toString());
+	}
+
+	/**
+	 * @return the cache of the public keys loaded by {@link #loadPublicKey(String)}
+	 */
+	public static PublicKeyCache getPublicKeyCache() {
+		return PUBLIC_KEY_CACHE;
+	}
 
 	/**
 	 * verify signature
@@ -65,24 +81,7 @@ public class RSAUtil {
 	 * @return true if verify successfully, false otherwise
 	 */
 	public static boolean verify(RSAPublicKey publicKey, byte[] data, byte[] sign) {
-		try {
-			Signature signature = Signature.getInstance("SHA256withRSA/PSS", BouncyCastleProvider.PROVIDER_NAME);
-			signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 20, 1));
-			signature.initVerify(publicKey);
-			signature.update(data);
-			return signature.verify(sign);
-		} catch (InvalidKeyException e) {
-			e.printStackTrace();
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-		} catch (NoSuchProviderException e) {
-			e.printStackTrace();
-		} catch (SignatureException e) {
-			e.printStackTrace();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return false;
+		return PSSVerifier.verify(publicKey, data, sign);
 	}
 
 	/**
@@ -94,19 +93,7 @@ public class RSAUtil {
 	 * @return true if verify successfully, false otherwise
 	 */
 	public static boolean verify(RSAPublicKey publicKey, byte[] data, byte[] sign, int saltLen) {
-		try {
-			if (saltLen < 20) {
-				saltLen = 20;
-			}
-			Signature signature = Signature.getInstance("SHA256withRSA/PSS", BouncyCastleProvider.PROVIDER_NAME);
-			signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, saltLen, 1));
-			signature.initVerify(publicKey);
-			signature.update(data);
-			return signature.verify(sign);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return false;
+		return PSSVerifier.verify(publicKey, data, sign, saltLen);
 	}
 
 	public static boolean verify(RSAPublicKey publicKey, String data, byte[] signature) {
@@ -120,33 +107,24 @@ public class RSAUtil {
 		}
 
 		int saltLen = 0;
-		ASN1Sequence decodedSequence;
-		try (ASN1InputStream asn1InputStream =
-					 new ASN1InputStream(attestationExtensionBytes)) {
-			// The extension contains one object, a sequence, in the
-			// Distinguished Encoding Rules (DER)-encoded form. Get the DER
-			// bytes.
-			byte[] derSequenceBytes = ((ASN1OctetString) asn1InputStream
-					.readObject()).getOctets();
-			// Decode the bytes as an ASN1 sequence object.
-			try (ASN1InputStream seqInputStream =
-						 new ASN1InputStream(derSequenceBytes)) {
-				decodedSequence = (ASN1Sequence) seqInputStream.readObject();
+		try {
+			// walk the DER bytes in place to the attestationChallenge OCTET STRING, which holds the challenge json
+			DerCursor challenge = DerCursor.locateAttestationChallenge(attestationExtensionBytes);
+			if (challenge == null) {
+				throw new Exception("malformed key description extension");
 			}
 
-			byte[] attestationChallenge = ((ASN1OctetString)
-					decodedSequence.getObjectAt(ATTESTATION_CHALLENGE_INDEX))
-					.getOctets();
-
-			String jsonString = new String(attestationChallenge);
-			JSONObject jsonObject = new JSONObject(jsonString);
+			SoterJsonFields fields = SoterJsonExtractor.extract(attestationExtensionBytes, challenge.getValueOffset(), challenge.getValueLength());
+			if (fields == null || fields.getCpuId() == null || !fields.hasUid() || !fields.hasCounter()) {
+				throw new Exception("challenge json is invalid or incomplete");
+			}
 
-			System.out.println("soter: challenge json in attestation certificate " + jsonString);
+			System.out.println("soter: challenge json in attestation certificate " + fields);
 
-			soterPubKeyModel.setCpu_id(jsonObject.getString("cpu_id"));
-			soterPubKeyModel.setUid(jsonObject.getInt("uid"));
-			soterPubKeyModel.setCounter(jsonObject.getLong("counter"));
-			saltLen = jsonObject.optInt("rsa_pss_saltlen", 0);
+			soterPubKeyModel.setCpu_id(fields.getCpuId());
+			soterPubKeyModel.setUid(fields.getUid());
+			soterPubKeyModel.setCounter(fields.getCounter());
+			saltLen = fields.getRsaPssSaltLen();
 		} catch (Exception e){
 			throw new Exception("Couldn't parse challenge json string in the attestation certificate" + e.getStackTrace());
 		}
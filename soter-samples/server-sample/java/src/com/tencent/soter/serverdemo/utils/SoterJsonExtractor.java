@@ -0,0 +1,451 @@
+package com.tencent.soter.serverdemo.utils;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * SoterJsonExtractor reads the fields the server needs from the json signed by SOTER, e.g. final_json, auth_key_json or the
+ * challenge json in the attestation certificate. It scans the UTF-8 bytes once and only creates Strings for the values of
+ * the known keys, instead of building a whole {@link JSONObject}.
+ * Escaped characters in the values are decoded. Anything unusual, like escaped characters in a key, a duplicated known key or a
+ * malformed document, falls back to {@link JSONObject}.
+ * @author alvinluo
+ */
+public class SoterJsonExtractor {
+
+	public static final String KEY_COUNTER = "counter";
+
+	public static final String KEY_CPU_ID = "cpu_id";
+
+	public static final String KEY_UID = "uid";
+
+	public static final String KEY_FID = "fid";
+
+	public static final String KEY_RAW = "raw";
+
+	public static final String KEY_RSA_PSS_SALT_LEN = "rsa_pss_saltlen";
+
+	public static final String KEY_PUB_KEY = "pub_key";
+
+	private static final byte[][] KEYS = {
+			KEY_COUNTER.getBytes(StandardCharsets.UTF_8),
+			KEY_CPU_ID.getBytes(StandardCharsets.UTF_8),
+			KEY_UID.getBytes(StandardCharsets.UTF_8),
+			KEY_FID.getBytes(StandardCharsets.UTF_8),
+			KEY_RAW.getBytes(StandardCharsets.UTF_8),
+			KEY_RSA_PSS_SALT_LEN.getBytes(StandardCharsets.UTF_8),
+			KEY_PUB_KEY.getBytes(StandardCharsets.UTF_8),
+	};
+
+	private static final int INDEX_COUNTER = 0;
+	private static final int INDEX_CPU_ID = 1;
+	private static final int INDEX_UID = 2;
+	private static final int INDEX_FID = 3;
+	private static final int INDEX_RAW = 4;
+	private static final int INDEX_RSA_PSS_SALT_LEN = 5;
+	private static final int INDEX_PUB_KEY = 6;
+
+	private static final int MAX_DEPTH = 32;
+
+	/**
+	 * extract the known SOTER fields from the json
+	 * @param json the UTF-8 encoded json
+	 * @return the fields, or null if the json can not be parsed
+	 */
+	public static SoterJsonFields extract(byte[] json) {
+		return extract(json, 0, json.length);
+	}
+
+	/**
+	 * extract the known SOTER fields from a region of the array
+	 * @param data the array containing the UTF-8 encoded json
+	 * @param offset the start of the json
+	 * @param length the length of the json
+	 * @return the fields, or null if the json can not be parsed
+	 */
+	public static SoterJsonFields extract(byte[] data, int offset, int length) {
+		SoterJsonFields fields = new SoterJsonFields();
+		if (new Scanner(data, offset, offset + length, fields).scanObject()) {
+			return fields;
+		}
+		return parseFully(data, offset, length);
+	}
+
+	private static SoterJsonFields parseFully(byte[] data, int offset, int length) {
+		try {
+			JSONObject jsonObject = new JSONObject(new String(data, offset, length, StandardCharsets.UTF_8));
+			SoterJsonFields fields = new SoterJsonFields();
+			if (jsonObject.has(KEY_COUNTER)) {
+				fields.setCounter(jsonObject.getLong(KEY_COUNTER));
+			}
+			if (jsonObject.has(KEY_CPU_ID)) {
+				fields.setCpuId(jsonObject.getString(KEY_CPU_ID));
+			}
+			if (jsonObject.has(KEY_UID)) {
+				fields.setUid(jsonObject.getInt(KEY_UID));
+			}
+			if (jsonObject.has(KEY_FID)) {
+				fields.setFid(jsonObject.getString(KEY_FID));
+			}
+			if (jsonObject.has(KEY_RAW)) {
+				fields.setRaw(jsonObject.getString(KEY_RAW));
+			}
+			if (jsonObject.has(KEY_PUB_KEY)) {
+				fields.setPubKey(jsonObject.getString(KEY_PUB_KEY));
+			}
+			fields.setRsaPssSaltLen(jsonObject.optInt(KEY_RSA_PSS_SALT_LEN, 0));
+			return fields;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Scanner walks the top level object once. Every method returns false when the fast path can not handle the input.
+	 */
+	private static class Scanner {
+		private final byte[] data;
+		private final int limit;
+		private final SoterJsonFields fields;
+		private int position;
+		private int seenKeys;
+
+		Scanner(byte[] data, int offset, int limit, SoterJsonFields fields) {
+			this.data = data;
+			this.position = offset;
+			this.limit = limit;
+			this.fields = fields;
+		}
+
+		boolean scanObject() {
+			skipWhitespace();
+			if (!consume('{')) {
+				return false;
+			}
+			skipWhitespace();
+			if (consume('}')) {
+				return atEnd();
+			}
+			while (true) {
+				skipWhitespace();
+				int keyIndex = readKey();
+				if (keyIndex == -2) {
+					return false;
+				}
+				skipWhitespace();
+				if (!consume(':')) {
+					return false;
+				}
+				skipWhitespace();
+				if (keyIndex >= 0) {
+					if ((seenKeys & (1 << keyIndex)) != 0 || !readKnownValue(keyIndex)) {
+						return false;
+					}
+					seenKeys |= 1 << keyIndex;
+				} else if (!skipValue(0)) {
+					return false;
+				}
+				skipWhitespace();
+				if (consume(',')) {
+					continue;
+				}
+				if (consume('}')) {
+					return atEnd();
+				}
+				return false;
+			}
+		}
+
+		/**
+		 * @return the index of the known key, -1 for other keys, -2 if the key can not be read
+		 */
+		private int readKey() {
+			if (!consume('"')) {
+				return -2;
+			}
+			int start = position;
+			int end = findStringEnd();
+			if (end < 0) {
+				return -2;
+			}
+			position = end + 1;
+			for (int i = start; i < end; i++) {
+				if (data[i] == '\\') {
+					// an escaped key may be equal to a known key after unescaping
+					return -2;
+				}
+			}
+			for (int i = 0; i < KEYS.length; i++) {
+				if (regionEquals(start, end, KEYS[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private boolean readKnownValue(int keyIndex) {
+			switch (keyIndex) {
+				case INDEX_COUNTER: {
+					long value = readLong(false);
+					if (value == Long.MIN_VALUE) {
+						return false;
+					}
+					fields.setCounter(value);
+					return true;
+				}
+				case INDEX_UID: {
+					// uid is a string in some devices and a number in others
+					long value = readLong(true);
+					if (value == Long.MIN_VALUE || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+						return false;
+					}
+					fields.setUid((int) value);
+					return true;
+				}
+				case INDEX_RSA_PSS_SALT_LEN: {
+					long value = readLong(false);
+					if (value == Long.MIN_VALUE || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+						return false;
+					}
+					fields.setRsaPssSaltLen((int) value);
+					return true;
+				}
+				default: {
+					String value = readString();
+					if (value == null) {
+						return false;
+					}
+					if (keyIndex == INDEX_CPU_ID) {
+						fields.setCpuId(value);
+					} else if (keyIndex == INDEX_FID) {
+						fields.setFid(value);
+					} else if (keyIndex == INDEX_PUB_KEY) {
+						fields.setPubKey(value);
+					} else {
+						fields.setRaw(value);
+					}
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * read an integer number, optionally wrapped in quotes
+		 * @return the number, or Long.MIN_VALUE if the value is not a plain integer
+		 */
+		private long readLong(boolean allowQuoted) {
+			boolean quoted = allowQuoted && consume('"');
+			boolean negative = consume('-');
+			int start = position;
+			long value = 0;
+			while (position < limit && data[position] >= '0' && data[position] <= '9') {
+				if (value > (Long.MAX_VALUE - 9) / 10) {
+					return Long.MIN_VALUE;
+				}
+				value = value * 10 + (data[position++] - '0');
+			}
+			if (position == start) {
+				return Long.MIN_VALUE;
+			}
+			if (quoted && !consume('"')) {
+				return Long.MIN_VALUE;
+			}
+			if (!quoted && position < limit && isNumberPart(data[position])) {
+				// fraction or exponent
+				return Long.MIN_VALUE;
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * @return the string value, or null if it's not a string or it contains escaped characters
+		 */
+		private String readString() {
+			if (!consume('"')) {
+				return null;
+			}
+			int start = position;
+			int end = findStringEnd();
+			if (end < 0) {
+				return null;
+			}
+			position = end + 1;
+			for (int i = start; i < end; i++) {
+				if (data[i] == '\\') {
+					return unescape(start, end);
+				}
+			}
+			return new String(data, start, end - start, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @return the unescaped string, or null if there's an invalid escape sequence
+		 */
+		private String unescape(int start, int end) {
+			StringBuilder builder = new StringBuilder(end - start);
+			int runStart = start;
+			int i = start;
+			while (i < end) {
+				if (data[i] != '\\') {
+					i++;
+					continue;
+				}
+				builder.append(new String(data, runStart, i - runStart, StandardCharsets.UTF_8));
+				if (i + 1 >= end) {
+					return null;
+				}
+				byte escaped = data[i + 1];
+				i += 2;
+				switch (escaped) {
+					case '"':
+					case '\\':
+					case '/':
+						builder.append((char) escaped);
+						break;
+					case 'b':
+						builder.append('\b');
+						break;
+					case 'f':
+						builder.append('\f');
+						break;
+					case 'n':
+						builder.append('\n');
+						break;
+					case 'r':
+						builder.append('\r');
+						break;
+					case 't':
+						builder.append('\t');
+						break;
+					case 'u': {
+						if (i + 4 > end) {
+							return null;
+						}
+						int c = 0;
+						for (int j = 0; j < 4; j++) {
+							int digit = Character.digit(data[i + j], 16);
+							if (digit < 0) {
+								return null;
+							}
+							c = (c << 4) | digit;
+						}
+						builder.append((char) c);
+						i += 4;
+						break;
+					}
+					default:
+						return null;
+				}
+				runStart = i;
+			}
+			builder.append(new String(data, runStart, end - runStart, StandardCharsets.UTF_8));
+			return builder.toString();
+		}
+
+		private boolean skipValue(int depth) {
+			if (position >= limit || depth > MAX_DEPTH) {
+				return false;
+			}
+			byte b = data[position];
+			if (b == '"') {
+				position++;
+				int end = findStringEnd();
+				if (end < 0) {
+					return false;
+				}
+				position = end + 1;
+				return true;
+			}
+			if (b == '{' || b == '[') {
+				char close = b == '{' ? '}' : ']';
+				position++;
+				skipWhitespace();
+				if (consume(close)) {
+					return true;
+				}
+				while (true) {
+					skipWhitespace();
+					if (b == '{') {
+						if (readKey() == -2) {
+							return false;
+						}
+						skipWhitespace();
+						if (!consume(':')) {
+							return false;
+						}
+						skipWhitespace();
+					}
+					if (!skipValue(depth + 1)) {
+						return false;
+					}
+					skipWhitespace();
+					if (consume(',')) {
+						continue;
+					}
+					return consume(close);
+				}
+			}
+			// number, true, false or null
+			int start = position;
+			while (position < limit && (isNumberPart(data[position]) || (data[position] >= 'a' && data[position] <= 'z'))) {
+				position++;
+			}
+			return position > start;
+		}
+
+		/**
+		 * @return the index of the closing quote of the string starting at the current position, or -1 if not found
+		 */
+		private int findStringEnd() {
+			for (int i = position; i < limit; i++) {
+				if (data[i] == '\\') {
+					i++;
+				} else if (data[i] == '"') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private boolean regionEquals(int start, int end, byte[] key) {
+			if (end - start != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (data[start + i] != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean isNumberPart(byte b) {
+			return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+		}
+
+		private boolean consume(char c) {
+			if (position < limit && data[position] == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean atEnd() {
+			skipWhitespace();
+			return position == limit;
+		}
+
+		private void skipWhitespace() {
+			while (position < limit) {
+				byte b = data[position];
+				if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+					return;
+				}
+				position++;
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.tencent.soter.serverdemo.utils;
+
+/**
+ * SoterJsonFields holds the fields read by {@link SoterJsonExtractor}. A field keeps its default value if it's absent,
+ * use {@link #hasCounter()}, {@link #getCpuId()} and so on to check.
+ * @author alvinluo
+ */
+public class SoterJsonFields {
+
+	private long counter = -1;
+	private boolean hasCounter = false;
+	private int uid = -1;
+	private boolean hasUid = false;
+	private String cpuId = null;
+	private String fid = null;
+	private String raw = null;
+	private String pubKey = null;
+	private int rsaPssSaltLen = 0;
+
+	public long getCounter() {
+		return counter;
+	}
+
+	public boolean hasCounter() {
+		return hasCounter;
+	}
+
+	void setCounter(long counter) {
+		this.counter = counter;
+		this.hasCounter = true;
+	}
+
+	public int getUid() {
+		return uid;
+	}
+
+	public boolean hasUid() {
+		return hasUid;
+	}
+
+	void setUid(int uid) {
+		this.uid = uid;
+		this.hasUid = true;
+	}
+
+	/**
+	 * @return the cpu_id, or null if absent
+	 */
+	public String getCpuId() {
+		return cpuId;
+	}
+
+	void setCpuId(String cpuId) {
+		this.cpuId = cpuId;
+	}
+
+	/**
+	 * @return the fid, or null if absent
+	 */
+	public String getFid() {
+		return fid;
+	}
+
+	void setFid(String fid) {
+		this.fid = fid;
+	}
+
+	/**
+	 * @return the raw challenge, or null if absent
+	 */
+	public String getRaw() {
+		return raw;
+	}
+
+	void setRaw(String raw) {
+		this.raw = raw;
+	}
+
+	/**
+	 * @return the pub_key in PEM format, or null if absent
+	 */
+	public String getPubKey() {
+		return pubKey;
+	}
+
+	void setPubKey(String pubKey) {
+		this.pubKey = pubKey;
+	}
+
+	/**
+	 * @return the rsa_pss_saltlen, or 0 if absent
+	 */
+	public int getRsaPssSaltLen() {
+		return rsaPssSaltLen;
+	}
+
+	void setRsaPssSaltLen(int rsaPssSaltLen) {
+		this.rsaPssSaltLen = rsaPssSaltLen;
+	}
+
+	@Override
+	public String toString() {
+		return "SoterJsonFields{" +
+				"counter=" + counter +
+				", uid=" + uid +
+				", cpuId='" + cpuId + '\'' +
+				", fid='" + fid + '\'' +
+				", raw='" + raw + '\'' +
+				", rsaPssSaltLen=" + rsaPssSaltLen +
+				'}';
+	}
+}